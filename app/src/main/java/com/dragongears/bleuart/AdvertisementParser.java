@@ -0,0 +1,244 @@
+package com.dragongears.bleuart;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/* reads AD structures (Core Spec Vol 3, Part C, 11) straight from the raw
+ * advertisement. parse() only remembers where each structure starts, all
+ * getters then look into the original array; one parser is reused for every
+ * scan result, so nothing is allocated unless a String is asked for */
+class AdvertisementParser {
+
+	/* AD types we know how to read */
+	static final int TYPE_FLAGS                  = 0x01;
+	static final int TYPE_UUID16_INCOMPLETE      = 0x02;
+	static final int TYPE_UUID16_COMPLETE        = 0x03;
+	static final int TYPE_UUID32_INCOMPLETE      = 0x04;
+	static final int TYPE_UUID32_COMPLETE        = 0x05;
+	static final int TYPE_UUID128_INCOMPLETE     = 0x06;
+	static final int TYPE_UUID128_COMPLETE       = 0x07;
+	static final int TYPE_NAME_SHORT             = 0x08;
+	static final int TYPE_NAME_COMPLETE          = 0x09;
+	static final int TYPE_TX_POWER               = 0x0A;
+	static final int TYPE_SERVICE_DATA_UUID16    = 0x16;
+	static final int TYPE_SERVICE_DATA_UUID32    = 0x20;
+	static final int TYPE_SERVICE_DATA_UUID128   = 0x21;
+	static final int TYPE_MANUFACTURER_DATA      = 0xFF;
+
+	static final int NO_FLAGS = -1;
+	static final int NO_TX_POWER = Integer.MIN_VALUE;
+	static final int NO_MANUFACTURER = -1;
+
+	/* extended advertisement has at most 254 bytes of data, every structure takes at least 2 */
+	private static final int MAX_STRUCTURES = 127;
+
+	private byte[] mRecord = null;
+	private int mCount = 0;
+	/* type, data offset and data length of every structure, in the order they were advertised */
+	private final int[] mTypes = new int[MAX_STRUCTURES];
+	private final int[] mOffsets = new int[MAX_STRUCTURES];
+	private final int[] mLengths = new int[MAX_STRUCTURES];
+	/* structure index of the name (complete one wins over shortened) and manufacturer data, -1 if missing */
+	private int mName = -1;
+	private int mManufacturer = -1;
+
+	/* indexes structures of <record>. Returns false if the record is
+	 * truncated, structures before the damaged one are still available */
+	boolean parse(byte[] record) {
+		mRecord = record;
+		mCount = 0;
+		mName = -1;
+		mManufacturer = -1;
+		if (record == null) return false;
+
+		int position = 0;
+		while (position < record.length) {
+			int length = record[position] & 0xFF;
+			// zero length field terminates significant part, the rest is padding
+			if (length == 0) return true;
+			if (position + 1 + length > record.length || mCount == MAX_STRUCTURES) return false;
+
+			int type = record[position + 1] & 0xFF;
+			mTypes[mCount] = type;
+			mOffsets[mCount] = position + 2;
+			mLengths[mCount] = length - 1;
+
+			if (type == TYPE_NAME_COMPLETE || (type == TYPE_NAME_SHORT && mName < 0)) mName = mCount;
+			else if (type == TYPE_MANUFACTURER_DATA && mManufacturer < 0 && length >= 3) mManufacturer = mCount;
+
+			mCount++;
+			position += 1 + length;
+		}
+		return true;
+	}
+
+	/* raw access to the structures, offsets point into getRecord() */
+	byte[] getRecord()          { return mRecord; }
+	int getStructureCount()     { return mCount; }
+	int getType(int index)      { return mTypes[index]; }
+	int getDataOffset(int index) { return mOffsets[index]; }
+	int getDataLength(int index) { return mLengths[index]; }
+
+	/* returns index of the first structure of <type>, -1 if there is none */
+	int find(int type) {
+		for (int i = 0; i < mCount; i++) {
+			if (mTypes[i] == type) return i;
+		}
+		return -1;
+	}
+
+	int getFlags() {
+		int index = find(TYPE_FLAGS);
+		if (index < 0 || mLengths[index] < 1) return NO_FLAGS;
+		return mRecord[mOffsets[index]] & 0xFF;
+	}
+
+	/* advertised TX power in dBm */
+	int getTxPowerLevel() {
+		int index = find(TYPE_TX_POWER);
+		if (index < 0 || mLengths[index] < 1) return NO_TX_POWER;
+		return mRecord[mOffsets[index]];
+	}
+
+	boolean hasName() {
+		return mName >= 0;
+	}
+
+	/* the only getter creating new object - call it only if name is really needed */
+	String getName() {
+		if (mName < 0) return null;
+		return new String(mRecord, mOffsets[mName], mLengths[mName], StandardCharsets.UTF_8);
+	}
+
+	/* compares advertised name with <name> without decoding it */
+	boolean nameEquals(String name) {
+		if (mName < 0 || name == null) return false;
+		return matchesName(name, true);
+	}
+
+	boolean nameStartsWith(String prefix) {
+		if (mName < 0 || prefix == null) return false;
+		return matchesName(prefix, false);
+	}
+
+	private boolean matchesName(String text, boolean whole) {
+		int offset = mOffsets[mName];
+		int length = mLengths[mName];
+		for (int i = 0; i < text.length(); i++) {
+			// non ASCII text can't be compared char by byte
+			if (text.charAt(i) >= 0x80) {
+				String name = getName();
+				return whole ? name.equals(text) : name.startsWith(text);
+			}
+		}
+		if (text.length() > length || (whole && text.length() != length)) return false;
+		for (int i = 0; i < text.length(); i++) {
+			if (mRecord[offset + i] != text.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/* company identifier of the first manufacturer specific data, NO_MANUFACTURER if missing */
+	int getManufacturerId() {
+		if (mManufacturer < 0) return NO_MANUFACTURER;
+		return CharacteristicDecoders.uint(mRecord, mOffsets[mManufacturer], 2);
+	}
+
+	/* offset and length of manufacturer data following the company identifier */
+	int getManufacturerDataOffset() {
+		return (mManufacturer < 0) ? -1 : mOffsets[mManufacturer] + 2;
+	}
+
+	int getManufacturerDataLength() {
+		return (mManufacturer < 0) ? 0 : mLengths[mManufacturer] - 2;
+	}
+
+	/* same semantics as ScanFilter.Builder.setManufacturerData() - data of <manufacturerId>
+	 * start with <data>, compared only on bits set in <mask> (mask may be null) */
+	boolean manufacturerDataMatches(int manufacturerId, byte[] data, byte[] mask) {
+		for (int i = 0; i < mCount; i++) {
+			if (mTypes[i] != TYPE_MANUFACTURER_DATA || mLengths[i] < 2) continue;
+			if (CharacteristicDecoders.uint(mRecord, mOffsets[i], 2) != manufacturerId) continue;
+			if (regionMatches(mOffsets[i] + 2, mLengths[i] - 2, data, mask)) return true;
+		}
+		return false;
+	}
+
+	/* checks all service UUID lists, whatever size the UUIDs are advertised in */
+	boolean hasServiceUuid(UUID uuid) {
+		long number = BleDefinedUUIDs.toAssignedNumber(uuid);
+		for (int i = 0; i < mCount; i++) {
+			int size = uuidListSize(mTypes[i]);
+			if (size == 0) continue;
+			for (int offset = mOffsets[i]; offset + size <= mOffsets[i] + mLengths[i]; offset += size) {
+				if (uuidEquals(offset, size, uuid, number)) return true;
+			}
+		}
+		return false;
+	}
+
+	/* returns index of service data structure for <uuid>, -1 if not advertised;
+	 * the data itself start after the UUID, see getServiceDataOffset() */
+	int findServiceData(UUID uuid) {
+		long number = BleDefinedUUIDs.toAssignedNumber(uuid);
+		for (int i = 0; i < mCount; i++) {
+			int size = serviceDataUuidSize(mTypes[i]);
+			if (size == 0 || mLengths[i] < size) continue;
+			if (uuidEquals(mOffsets[i], size, uuid, number)) return i;
+		}
+		return -1;
+	}
+
+	int getServiceDataOffset(int index) {
+		return mOffsets[index] + serviceDataUuidSize(mTypes[index]);
+	}
+
+	int getServiceDataLength(int index) {
+		return mLengths[index] - serviceDataUuidSize(mTypes[index]);
+	}
+
+	/* size of UUIDs in service UUID list of <type>, 0 if it is not a list */
+	private static int uuidListSize(int type) {
+		switch (type) {
+			case TYPE_UUID16_INCOMPLETE:  case TYPE_UUID16_COMPLETE:  return 2;
+			case TYPE_UUID32_INCOMPLETE:  case TYPE_UUID32_COMPLETE:  return 4;
+			case TYPE_UUID128_INCOMPLETE: case TYPE_UUID128_COMPLETE: return 16;
+			default: return 0;
+		}
+	}
+
+	private static int serviceDataUuidSize(int type) {
+		switch (type) {
+			case TYPE_SERVICE_DATA_UUID16:  return 2;
+			case TYPE_SERVICE_DATA_UUID32:  return 4;
+			case TYPE_SERVICE_DATA_UUID128: return 16;
+			default: return 0;
+		}
+	}
+
+	/* compares little endian UUID of <size> bytes at <offset>, <number> is
+	 * the assigned number of <uuid> (or -1 if it is not SIG UUID) */
+	private boolean uuidEquals(int offset, int size, UUID uuid, long number) {
+		if (size != 16) {
+			return number >= 0 && (CharacteristicDecoders.uint(mRecord, offset, size) & 0xFFFFFFFFL) == number;
+		}
+		return readLong(offset + 8) == uuid.getMostSignificantBits()
+			&& readLong(offset) == uuid.getLeastSignificantBits();
+	}
+
+	private long readLong(int offset) {
+		long value = 0;
+		for (int i = 7; i >= 0; i--) value = (value << 8) | (mRecord[offset + i] & 0xFF);
+		return value;
+	}
+
+	private boolean regionMatches(int offset, int length, byte[] data, byte[] mask) {
+		if (data == null) return true;
+		if (length < data.length) return false;
+		for (int i = 0; i < data.length; i++) {
+			int bits = (mask != null && i < mask.length) ? mask[i] : 0xFF;
+			if (((mRecord[offset + i] ^ data[i]) & bits) != 0) return false;
+		}
+		return true;
+	}
+}
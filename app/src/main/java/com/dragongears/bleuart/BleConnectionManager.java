@@ -0,0 +1,137 @@
+package com.dragongears.bleuart;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import android.content.Context;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+/* keeps UART links to several peripherals at once. Every link is its own
+ * BleWrapper (own BluetoothGatt, TX queue and receive buffer), all of them
+ * run on one shared event loop and take turns in one GattScheduler.
+ * Links are kept here, not in activities, so they live as long as the
+ * manager does. Methods are meant to be called from the UI thread */
+class BleConnectionManager {
+
+    /* most Android controllers handle 7 or 8 simultaneous LE connections */
+    static final int DEFAULT_MAX_CONNECTIONS = 7;
+
+    private final Context mContext;
+    private final HandlerThread mLoopThread;
+    private final GattScheduler mScheduler = new GattScheduler();
+    /* links by MAC address, in the order they were opened */
+    private final LinkedHashMap<String, BleWrapper> mLinks = new LinkedHashMap<>();
+    private int mMaxConnections = DEFAULT_MAX_CONNECTIONS;
+
+    /* totals of links already closed, and the moment stats were reset */
+    private long mClosedBytesSent = 0;
+    private long mClosedBytesReceived = 0;
+    private long mStatsStart = SystemClock.elapsedRealtime();
+    private long mStatsSentBase = 0;
+    private long mStatsReceivedBase = 0;
+
+    BleConnectionManager(Context context) {
+        mContext = context.getApplicationContext();
+        mLoopThread = new HandlerThread("BleConnectionManager", Process.THREAD_PRIORITY_FOREGROUND);
+        mLoopThread.start();
+    }
+
+    void setMaxConnections(int max) {
+        mMaxConnections = Math.max(1, max);
+    }
+
+    /* opens link to the peripheral (or returns the one already open); <callback> and
+     * <receiveListener> are called from the shared event loop thread. Returns null
+     * if the connection limit was reached or the address is not valid */
+    BleWrapper connect(String address, BleWrapperUiCallbacks callback, UartReceiveListener receiveListener) {
+        BleWrapper link = mLinks.get(address);
+        if (link != null) return link;
+        if (mLinks.size() >= mMaxConnections) return null;
+
+        link = new BleWrapper(mContext, callback, mLoopThread.getLooper(), mScheduler);
+        if (!link.initialize()) return null;
+        link.setReceiveListener(receiveListener);
+        if (!link.connect(address)) {
+            link.close();
+            return null;
+        }
+        mLinks.put(address, link);
+        return link;
+    }
+
+    /* disconnects and forgets the link */
+    void disconnect(String address) {
+        BleWrapper link = mLinks.remove(address);
+        if (link == null) return;
+        mClosedBytesSent += link.getBytesSent();
+        mClosedBytesReceived += link.getBytesReceived();
+        link.disconnect();
+        link.close();
+    }
+
+    void disconnectAll() {
+        List<String> addresses = new ArrayList<>(mLinks.keySet());
+        for (int i = 0; i < addresses.size(); i++) disconnect(addresses.get(i));
+    }
+
+    /* closes all links and ends the event loop, the manager can't be used after that */
+    void close() {
+        disconnectAll();
+        mLoopThread.quitSafely();
+    }
+
+    BleWrapper getLink(String address) {
+        return mLinks.get(address);
+    }
+
+    List<BleWrapper> getLinks() {
+        return new ArrayList<>(mLinks.values());
+    }
+
+    int getConnectionCount() {
+        return mLinks.size();
+    }
+
+    /* sends the same text to every connected link */
+    void sendToAll(String text) {
+        for (BleWrapper link : mLinks.values()) {
+            if (link.isConnected()) link.send(text);
+        }
+    }
+
+    /* aggregate UART statistics of all links, closed ones included */
+    long getTotalBytesSent() {
+        long total = mClosedBytesSent;
+        for (BleWrapper link : mLinks.values()) total += link.getBytesSent();
+        return total;
+    }
+
+    long getTotalBytesReceived() {
+        long total = mClosedBytesReceived;
+        for (BleWrapper link : mLinks.values()) total += link.getBytesReceived();
+        return total;
+    }
+
+    long getTotalBytesQueued() {
+        long total = 0;
+        for (BleWrapper link : mLinks.values()) total += link.getBytesQueued();
+        return total;
+    }
+
+    /* average throughput (both directions together) since the last resetStats() */
+    int getTotalBytesPerSecond() {
+        long elapsed = SystemClock.elapsedRealtime() - mStatsStart;
+        if (elapsed <= 0) return 0;
+        long bytes = getTotalBytesSent() - mStatsSentBase + getTotalBytesReceived() - mStatsReceivedBase;
+        return (int) (bytes * 1000 / elapsed);
+    }
+
+    void resetStats() {
+        mStatsStart = SystemClock.elapsedRealtime();
+        mStatsSentBase = getTotalBytesSent();
+        mStatsReceivedBase = getTotalBytesReceived();
+    }
+}
@@ -3,6 +3,26 @@ package com.dragongears.bleuart;
 import java.util.UUID;
 
 public class BleDefinedUUIDs {
+
+	/* all SIG assigned UUIDs are 0000xxxx-0000-1000-8000-00805f9b34fb (or xxxxxxxx-... for 32 bit ones) */
+	final static private long BASE_UUID_MSB_MASK = 0x00000000FFFFFFFFL;
+	final static private long BASE_UUID_MSB      = 0x0000000000001000L;
+	final static private long BASE_UUID_LSB      = 0x800000805F9B34FBL;
+
+	/* returns 16/32 bit assigned number of UUID built on Bluetooth base UUID,
+	 * -1 for any other (vendor specific) UUID */
+	static long toAssignedNumber(final UUID uuid) {
+		if(uuid.getLeastSignificantBits() != BASE_UUID_LSB) return -1;
+		long msb = uuid.getMostSignificantBits();
+		if((msb & BASE_UUID_MSB_MASK) != BASE_UUID_MSB) return -1;
+		return msb >>> 32;
+	}
+
+	/* returns 16 bit assigned number of UUID, -1 if it is not 16 bit SIG UUID */
+	static int toShortUuid(final UUID uuid) {
+		long number = toAssignedNumber(uuid);
+		return (number >= 0 && number <= 0xFFFF) ? (int) number : -1;
+	}
 	
 	public static class Service {
 		final static public UUID HEART_RATE               = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
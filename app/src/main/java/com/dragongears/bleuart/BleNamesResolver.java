@@ -1,19 +1,33 @@
 package com.dragongears.bleuart;
 
-import java.util.HashMap;
+import java.util.UUID;
 
+import android.content.Context;
 import android.util.SparseArray;
 
 class BleNamesResolver {
-	private static HashMap<String, String> mServices = new HashMap<>();
-	private static HashMap<String, String> mCharacteristics = new HashMap<>();
+	/* vendor specific services and characteristics keyed by full 128 bit UUID,
+	 * SIG defined ones come from GattNamesDatabase */
+	private static UuidObjectMap<String> mVendorServices = new UuidObjectMap<>();
+	private static UuidObjectMap<String> mVendorCharacteristics = new UuidObjectMap<>();
 	private static SparseArray<String> mValueFormats = new SparseArray<>();
-	private static SparseArray<String> mAppearance = new SparseArray<>();
 	private static SparseArray<String> mHeartRateSensorLocation = new SparseArray<>();
-	
-	static String resolveServiceName(final String uuid)
+
+	/* let the resolver find GATT names database, nothing is loaded until the first lookup */
+	static void initialize(Context context) {
+		GattNamesDatabase.init(context);
+	}
+
+	/* looks <uuid> up in SIG table for SIG UUIDs or in 128 bit table for vendor ones */
+	private static String lookup(final UUID uuid, int table, UuidObjectMap<String> vendor) {
+		int shortUuid = BleDefinedUUIDs.toShortUuid(uuid);
+		if(shortUuid >= 0) return GattNamesDatabase.lookup(table, shortUuid);
+		return (vendor != null) ? vendor.get(uuid) : null;
+	}
+
+	static String resolveServiceName(final UUID uuid)
 	{
-		String result = mServices.get(uuid);
+		String result = lookup(uuid, GattNamesDatabase.SERVICES, mVendorServices);
 		if(result == null) result = "Unknown Service";
 		return result;
 	}
@@ -24,27 +38,44 @@ class BleNamesResolver {
 		return mValueFormats.get(tmp, "Unknown Format");
 	}	
 	
-	static String resolveCharacteristicName(final String uuid)
+	static String resolveCharacteristicName(final UUID uuid)
 	{
-		String result = mCharacteristics.get(uuid);
+		String result = lookup(uuid, GattNamesDatabase.CHARACTERISTICS, mVendorCharacteristics);
 		if(result == null) result = "Unknown Characteristic";
 		return result;
 	}
+
+	static String resolveDescriptorName(final UUID uuid)
+	{
+		String result = lookup(uuid, GattNamesDatabase.DESCRIPTORS, null);
+		if(result == null) result = "Unknown Descriptor";
+		return result;
+	}
 	
-	static public String resolveUuid(final String uuid) {
-		String result = mServices.get(uuid);
+	static public String resolveUuid(final UUID uuid) {
+		String result = lookup(uuid, GattNamesDatabase.SERVICES, mVendorServices);
 		if(result != null) return "Service: " + result;
 
-		result = mCharacteristics.get(uuid);
+		result = lookup(uuid, GattNamesDatabase.CHARACTERISTICS, mVendorCharacteristics);
 		if(result != null) return "Characteristic: " + result;
 
+		result = lookup(uuid, GattNamesDatabase.DESCRIPTORS, null);
+		if(result != null) return "Descriptor: " + result;
+
 		result = "Unknown UUID";
 		return result;
 	}
 
 	static String resolveAppearance(int key) {
-		Integer tmp = key;
-		return mAppearance.get(tmp, "Unknown Appearance");		
+		String result = GattNamesDatabase.lookup(GattNamesDatabase.APPEARANCE, key);
+		if(result == null) result = "Unknown Appearance";
+		return result;
+	}
+
+	static String resolveCompany(int companyId) {
+		String result = GattNamesDatabase.lookup(GattNamesDatabase.COMPANIES, companyId);
+		if(result == null) result = "Unknown Company";
+		return result;
 	}
 	
 	static String resolveHeartRateSensorLocation(int key) {
@@ -52,119 +83,19 @@ class BleNamesResolver {
 		return mHeartRateSensorLocation.get(tmp, "Other");		
 	}
 	
-	static public boolean isService(final String uuid) {
-		return mServices.containsKey(uuid);
+	static public boolean isService(final UUID uuid) {
+		return lookup(uuid, GattNamesDatabase.SERVICES, mVendorServices) != null;
 	}
 
-	static public boolean isCharacteristic(final String uuid) {
-		return mCharacteristics.containsKey(uuid);
+	static public boolean isCharacteristic(final UUID uuid) {
+		return lookup(uuid, GattNamesDatabase.CHARACTERISTICS, mVendorCharacteristics) != null;
 	}
 
 	static {
-		mServices.put("00001811-0000-1000-8000-00805f9b34fb", "Alert Notification Service");
-		mServices.put("0000180f-0000-1000-8000-00805f9b34fb", "Battery Service");
-		mServices.put("00001810-0000-1000-8000-00805f9b34fb", "Blood Pressure");
-		mServices.put("00001805-0000-1000-8000-00805f9b34fb", "Current Time Service");
-		mServices.put("00001818-0000-1000-8000-00805f9b34fb", "Cycling Power");
-		mServices.put("00001816-0000-1000-8000-00805f9b34fb", "Cycling Speed and Cadence");
-		mServices.put("0000180a-0000-1000-8000-00805f9b34fb", "Device Information");
-		mServices.put("00001800-0000-1000-8000-00805f9b34fb", "Generic Access");
-		mServices.put("00001801-0000-1000-8000-00805f9b34fb", "Generic Attribute");
-		mServices.put("00001808-0000-1000-8000-00805f9b34fb", "Glucose");
-		mServices.put("00001809-0000-1000-8000-00805f9b34fb", "Health Thermometer");
-		mServices.put("0000180d-0000-1000-8000-00805f9b34fb", "Heart Rate");
-		mServices.put("00001812-0000-1000-8000-00805f9b34fb", "Human Interface Device");
-		mServices.put("00001802-0000-1000-8000-00805f9b34fb", "Immediate Alert");
-		mServices.put("00001803-0000-1000-8000-00805f9b34fb", "Link Loss");
-		mServices.put("00001819-0000-1000-8000-00805f9b34fb", "Location and Navigation");
-		mServices.put("00001807-0000-1000-8000-00805f9b34fb", "Next DST Change Service");
-		mServices.put("0000180e-0000-1000-8000-00805f9b34fb", "Phone Alert Status Service");
-		mServices.put("00001806-0000-1000-8000-00805f9b34fb", "Reference Time Update Service");
-		mServices.put("00001814-0000-1000-8000-00805f9b34fb", "Running Speed and Cadence");
-		mServices.put("00001813-0000-1000-8000-00805f9b34fb", "Scan Parameters");
-		mServices.put("00001804-0000-1000-8000-00805f9b34fb", "Tx Power");
-		
-		mCharacteristics.put("00002a43-0000-1000-8000-00805f9b34fb", "Alert Category ID");
-		mCharacteristics.put("00002a42-0000-1000-8000-00805f9b34fb", "Alert Category ID Bit Mask");
-		mCharacteristics.put("00002a06-0000-1000-8000-00805f9b34fb", "Alert Level");
-		mCharacteristics.put("00002a44-0000-1000-8000-00805f9b34fb", "Alert Notification Control Point");
-		mCharacteristics.put("00002a3f-0000-1000-8000-00805f9b34fb", "Alert Status");
-		mCharacteristics.put("00002a01-0000-1000-8000-00805f9b34fb", "Appearance");
-		mCharacteristics.put("00002a19-0000-1000-8000-00805f9b34fb", "Battery Level");
-		mCharacteristics.put("00002a49-0000-1000-8000-00805f9b34fb", "Blood Pressure Feature");
-		mCharacteristics.put("00002a35-0000-1000-8000-00805f9b34fb", "Blood Pressure Measurement");
-		mCharacteristics.put("00002a38-0000-1000-8000-00805f9b34fb", "Body Sensor Location");
-		mCharacteristics.put("00002a22-0000-1000-8000-00805f9b34fb", "Boot Keyboard Input Report");
-		mCharacteristics.put("00002a32-0000-1000-8000-00805f9b34fb", "Boot Keyboard Output Report");
-		mCharacteristics.put("00002a33-0000-1000-8000-00805f9b34fb", "Boot Mouse Input Report");
-		mCharacteristics.put("00002a5c-0000-1000-8000-00805f9b34fb", "CSC Feature");
-		mCharacteristics.put("00002a5b-0000-1000-8000-00805f9b34fb", "CSC Measurement");
-		mCharacteristics.put("00002a2b-0000-1000-8000-00805f9b34fb", "Current Time");
-		mCharacteristics.put("00002a66-0000-1000-8000-00805f9b34fb", "Cycling Power Control Point");
-		mCharacteristics.put("00002a65-0000-1000-8000-00805f9b34fb", "Cycling Power Feature");
-		mCharacteristics.put("00002a63-0000-1000-8000-00805f9b34fb", "Cycling Power Measurement");
-		mCharacteristics.put("00002a64-0000-1000-8000-00805f9b34fb", "Cycling Power Vector");
-		mCharacteristics.put("00002a08-0000-1000-8000-00805f9b34fb", "Date Time");
-		mCharacteristics.put("00002a0a-0000-1000-8000-00805f9b34fb", "Day Date Time");
-		mCharacteristics.put("00002a09-0000-1000-8000-00805f9b34fb", "Day of Week");
-		mCharacteristics.put("00002a00-0000-1000-8000-00805f9b34fb", "Device Name");
-		mCharacteristics.put("00002a0d-0000-1000-8000-00805f9b34fb", "DST Offset");
-		mCharacteristics.put("00002a0c-0000-1000-8000-00805f9b34fb", "Exact Time 256");
-		mCharacteristics.put("00002a26-0000-1000-8000-00805f9b34fb", "Firmware Revision String");
-		mCharacteristics.put("00002a51-0000-1000-8000-00805f9b34fb", "Glucose Feature");
-		mCharacteristics.put("00002a18-0000-1000-8000-00805f9b34fb", "Glucose Measurement");
-		mCharacteristics.put("00002a34-0000-1000-8000-00805f9b34fb", "Glucose Measurement Context");
-		mCharacteristics.put("00002a27-0000-1000-8000-00805f9b34fb", "Hardware Revision String");
-		mCharacteristics.put("00002a39-0000-1000-8000-00805f9b34fb", "Heart Rate Control Point");
-		mCharacteristics.put("00002a37-0000-1000-8000-00805f9b34fb", "Heart Rate Measurement");
-		mCharacteristics.put("00002a4c-0000-1000-8000-00805f9b34fb", "HID Control Point");
-		mCharacteristics.put("00002a4a-0000-1000-8000-00805f9b34fb", "HID Information");
-		mCharacteristics.put("00002a2a-0000-1000-8000-00805f9b34fb", "IEEE 11073-20601 Regulatory Certification Data List");
-		mCharacteristics.put("00002a36-0000-1000-8000-00805f9b34fb", "Intermediate Cuff Pressure");
-		mCharacteristics.put("00002a1e-0000-1000-8000-00805f9b34fb", "Intermediate Temperature");
-		mCharacteristics.put("00002a6b-0000-1000-8000-00805f9b34fb", "LN Control Point");
-		mCharacteristics.put("00002a6a-0000-1000-8000-00805f9b34fb", "LN Feature");
-		mCharacteristics.put("00002a0f-0000-1000-8000-00805f9b34fb", "Local Time Information");
-		mCharacteristics.put("00002a67-0000-1000-8000-00805f9b34fb", "Location and Speed");
-		mCharacteristics.put("00002a29-0000-1000-8000-00805f9b34fb", "Manufacturer Name String");
-		mCharacteristics.put("00002a21-0000-1000-8000-00805f9b34fb", "Measurement Interval");
-		mCharacteristics.put("00002a24-0000-1000-8000-00805f9b34fb", "Model Number String");
-		mCharacteristics.put("00002a68-0000-1000-8000-00805f9b34fb", "Navigation");
-		mCharacteristics.put("00002a46-0000-1000-8000-00805f9b34fb", "New Alert");
-		mCharacteristics.put("00002a04-0000-1000-8000-00805f9b34fb", "Peripheral Preferred Connection Parameters");
-		mCharacteristics.put("00002a02-0000-1000-8000-00805f9b34fb", "Peripheral Privacy Flag");
-		mCharacteristics.put("00002a50-0000-1000-8000-00805f9b34fb", "PnP ID");
-		mCharacteristics.put("00002a69-0000-1000-8000-00805f9b34fb", "Position Quality");
-		mCharacteristics.put("00002a4e-0000-1000-8000-00805f9b34fb", "Protocol Mode");
-		mCharacteristics.put("00002a03-0000-1000-8000-00805f9b34fb", "Reconnection Address");
-		mCharacteristics.put("00002a52-0000-1000-8000-00805f9b34fb", "Record Access Control Point");
-		mCharacteristics.put("00002a14-0000-1000-8000-00805f9b34fb", "Reference Time Information");
-		mCharacteristics.put("00002a4d-0000-1000-8000-00805f9b34fb", "Report");
-		mCharacteristics.put("00002a4b-0000-1000-8000-00805f9b34fb", "Report Map");
-		mCharacteristics.put("00002a40-0000-1000-8000-00805f9b34fb", "Ringer Control Point");
-		mCharacteristics.put("00002a41-0000-1000-8000-00805f9b34fb", "Ringer Setting");
-		mCharacteristics.put("00002a54-0000-1000-8000-00805f9b34fb", "RSC Feature");
-		mCharacteristics.put("00002a53-0000-1000-8000-00805f9b34fb", "RSC Measurement");
-		mCharacteristics.put("00002a55-0000-1000-8000-00805f9b34fb", "SC Control Point");
-		mCharacteristics.put("00002a4f-0000-1000-8000-00805f9b34fb", "Scan Interval Window");
-		mCharacteristics.put("00002a31-0000-1000-8000-00805f9b34fb", "Scan Refresh");
-		mCharacteristics.put("00002a5d-0000-1000-8000-00805f9b34fb", "Sensor Location");
-		mCharacteristics.put("00002a25-0000-1000-8000-00805f9b34fb", "Serial Number String");
-		mCharacteristics.put("00002a05-0000-1000-8000-00805f9b34fb", "Service Changed");
-		mCharacteristics.put("00002a28-0000-1000-8000-00805f9b34fb", "Software Revision String");
-		mCharacteristics.put("00002a47-0000-1000-8000-00805f9b34fb", "Supported New Alert Category");
-		mCharacteristics.put("00002a48-0000-1000-8000-00805f9b34fb", "Supported Unread Alert Category");
-		mCharacteristics.put("00002a23-0000-1000-8000-00805f9b34fb", "System ID");
-		mCharacteristics.put("00002a1c-0000-1000-8000-00805f9b34fb", "Temperature Measurement");
-		mCharacteristics.put("00002a1d-0000-1000-8000-00805f9b34fb", "Temperature Type");
-		mCharacteristics.put("00002a12-0000-1000-8000-00805f9b34fb", "Time Accuracy");
-		mCharacteristics.put("00002a13-0000-1000-8000-00805f9b34fb", "Time Source");
-		mCharacteristics.put("00002a16-0000-1000-8000-00805f9b34fb", "Time Update Control Point");
-		mCharacteristics.put("00002a17-0000-1000-8000-00805f9b34fb", "Time Update State");
-		mCharacteristics.put("00002a11-0000-1000-8000-00805f9b34fb", "Time with DST");
-		mCharacteristics.put("00002a0e-0000-1000-8000-00805f9b34fb", "Time Zone");
-		mCharacteristics.put("00002a07-0000-1000-8000-00805f9b34fb", "Tx Power Level");
-		mCharacteristics.put("00002a45-0000-1000-8000-00805f9b34fb", "Unread Alert Status");
+		mVendorServices.put(UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e"), "Nordic UART Service");
+
+		mVendorCharacteristics.put(UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e"), "UART TX");
+		mVendorCharacteristics.put(UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e"), "UART RX");
 		
 		mValueFormats.put(52, "32bit float");
 		mValueFormats.put(50, "16bit float");
@@ -175,20 +106,6 @@ class BleNamesResolver {
 		mValueFormats.put(20, "32bit unsigned int");
 		mValueFormats.put(17, "8bit unsigned int");
 		
-		// lets add also couple appearance string description
-		// https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.gap.appearance.xml
-		mAppearance.put(833, "Heart Rate Sensor: Belt");
-		mAppearance.put(832, "Generic Heart Rate Sensor");
-		mAppearance.put(0, "Unknown");
-		mAppearance.put(64, "Generic Phone");
-		mAppearance.put(1157, "Cycling: Speed and Cadence Sensor");
-		mAppearance.put(1152, "General Cycling");
-		mAppearance.put(1153, "Cycling Computer");
-		mAppearance.put(1154, "Cycling: Speed Sensor");
-		mAppearance.put(1155, "Cycling: Cadence Sensor");
-		mAppearance.put(1156, "Cycling: Speed and Cadence Sensor");
-		mAppearance.put(1157, "Cycling: Power Sensor");
-		
 		mHeartRateSensorLocation.put(0, "Other");
 		mHeartRateSensorLocation.put(1, "Chest");
 		mHeartRateSensorLocation.put(2, "Wrist");
@@ -197,4 +114,4 @@ class BleNamesResolver {
 		mHeartRateSensorLocation.put(5, "Ear Lobe");
 		mHeartRateSensorLocation.put(6, "Foot");
 	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,18 @@
+package com.dragongears.bleuart;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+/* lightweight receiver of characteristic notifications - gets the raw value
+ * together with monotonic timestamp and nothing is parsed or formatted for it */
+interface BleRawValueListener {
+
+	/* <value> is the array held by characteristic, <timestampNanos> comes
+	 * from SystemClock.elapsedRealtimeNanos() */
+	void onRawValue(final BluetoothGattCharacteristic ch, final byte[] value, final long timestampNanos);
+
+	/* define Null Adapter class for that interface */
+	class Null implements BleRawValueListener {
+		@Override
+		public void onRawValue(BluetoothGattCharacteristic ch, byte[] value, long timestampNanos) {}
+	}
+}
@@ -1,13 +1,11 @@
 package com.dragongears.bleuart;
 
-import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.Random;
 import java.util.UUID;
 
-import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
@@ -17,18 +15,26 @@ import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
+import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanRecord;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 class BleWrapper {
 
     // UUIDs for UART service and associated characteristics.
-    private static UUID UART_UUID = UUID.fromString("6E400001-B5A3-F393-E0A9-E50E24DCCA9E");
+    static final UUID UART_UUID = UUID.fromString("6E400001-B5A3-F393-E0A9-E50E24DCCA9E");
     private static UUID TX_UUID   = UUID.fromString("6E400002-B5A3-F393-E0A9-E50E24DCCA9E");
     private static UUID RX_UUID   = UUID.fromString("6E400003-B5A3-F393-E0A9-E50E24DCCA9E");
 
@@ -42,44 +48,553 @@ class BleWrapper {
     public static UUID DIS_HWREV_UUID = UUID.fromString("00002a26-0000-1000-8000-00805f9b34fb");
     public static UUID DIS_SWREV_UUID = UUID.fromString("00002a28-0000-1000-8000-00805f9b34fb");
 
-    private BluetoothGattCharacteristic tx;
-    private BluetoothGattCharacteristic rx;
+    /* set by the event loop */
+    private volatile BluetoothGattCharacteristic tx;
+    private volatile BluetoothGattCharacteristic rx;
+    /* connect in background whenever the device becomes available, see setAutoConnect() */
+    private volatile boolean mAutoConnect = false;
+    /* link was closed on request (or not opened yet), not lost - set by the event loop,
+     * checked also by send(), which queues data only while the link is wanted */
+    private volatile boolean mDisconnectRequested = true;
+
+    /* outgoing UART data waiting to be written to the TX characteristic */
+    private final UartWriteQueue mWriteQueue = new UartWriteQueue();
+    /* write type used for UART data */
+    private int mWriteType = BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+
+    /* event loop owning all state of the wrapper - GATT callbacks, calls from the UI
+     * and timers are all handled on this single thread, so none of them needs a lock;
+     * mLoopThread is null when the loop is shared with other wrappers */
+    private final HandlerThread mLoopThread;
+    private final Handler mHandler;
+    /* every request to the remote device goes through this queue, one at a time */
+    private final GattOperationQueue mOperations;
+
+    /* ATT MTU requested right after connecting, 517 is the maximum allowed by the specification */
+    private static final int PREFERRED_MTU = 517;
+    /* size of ATT header which has to fit into the MTU together with the written value */
+    private static final int ATT_HEADER_SIZE = 3;
+    /* negotiated MTU for the current connection */
+    private int mMtu = UartWriteQueue.DEFAULT_CHUNK_SIZE + ATT_HEADER_SIZE;
 
     // Send data to connected UART device.
-    private void send(byte[] data) {
-        if (tx == null || data == null || data.length == 0) {
+    void send(byte[] data) {
+        if (mDisconnectRequested || data == null || data.length == 0) {
             // Do nothing if there is no connection or message to send.
+            // While the link is being re-established data wait in the queue.
             return;
         }
-        // Update TX characteristic value.  Note the setValue overload that takes a byte array must be used.
-        tx.setValue(data);
-        mBluetoothGatt.writeCharacteristic(tx);
-        // ToDo: Update to include a timeout in case this goes into the weeds
+        // the write queue is the handoff between the caller and the event loop
+        mWriteQueue.add(data);
+        mHandler.sendEmptyMessage(MSG_PUMP_WRITE_QUEUE);
     }
 
     // Send data to connected UART device.
     void send(String data) {
-        if (data != null && !data.isEmpty()) {
-            send(data.getBytes(Charset.forName("UTF-8")));
+        if (mDisconnectRequested || data == null || data.isEmpty()) return;
+        // text is encoded once and sliced on UTF-8 sequence boundaries
+        mWriteQueue.addText(data);
+        mHandler.sendEmptyMessage(MSG_PUMP_WRITE_QUEUE);
+    }
+
+    /* use write without response for UART data - the stack confirms such write as soon
+     * as it is handed over to the controller, without waiting for the peripheral.
+     * There is no window of writes issued ahead of their confirmations any more:
+     * BluetoothGatt stays busy until onCharacteristicWrite even for writes without
+     * response, so the operation queue can only issue the next chunk from that callback.
+     * Reliable transport always writes without response */
+    void setWriteWithoutResponse(boolean enabled) {
+        mWriteType = enabled ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
+                             : BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+    }
+
+    boolean isSending() { return !mWriteQueue.isIdle(); }
+
+    /* UART bytes confirmed written and received since the wrapper was created,
+     * updated only by the event loop */
+    private volatile long mBytesSent = 0;
+    private volatile long mBytesReceived = 0;
+
+    long getBytesSent()     { return mBytesSent; }
+    long getBytesReceived() { return mBytesReceived; }
+    /* bytes waiting in the TX queue (not yet confirmed) and dropped by the receiver */
+    long getBytesQueued()   { return mWriteQueue.getBytesTotal() - mWriteQueue.getBytesAcked(); }
+    long getBytesDropped()  { return mReceiver.getDroppedBytes(); }
+
+    /* incoming UART data reassembled into messages */
+    private final UartReceiver mReceiver = new UartReceiver(UartReceiver.DEFAULT_CAPACITY);
+
+    /* set object which will get every complete message received from UART device */
+    void setReceiveListener(UartReceiveListener listener) {
+        mHandler.obtainMessage(MSG_SET_RECEIVE_LISTENER, listener).sendToTarget();
+    }
+
+    /* set how the received byte stream is split into messages (newline terminated by default) */
+    void setFramer(UartFramer framer) {
+        mHandler.obtainMessage(MSG_SET_FRAMER, framer).sendToTarget();
+    }
+
+    /* receiver of raw notification values - the fast path for every notification */
+    private volatile BleRawValueListener mRawValueListener = new BleRawValueListener.Null();
+    /* notifications are parsed and passed to uiNewValueForCharacteristic only when UI asks for it */
+    private volatile boolean mParseNotifications = false;
+
+    void setRawValueListener(BleRawValueListener listener) {
+        mRawValueListener = (listener != null) ? listener : new BleRawValueListener.Null();
+    }
+
+    /* enables parsing of notified values and passing them to uiNewValueForCharacteristic/uiGotNotification.
+     * Values read with requestCharacteristicValue() are always parsed */
+    void setParseNotifications(boolean enabled) { mParseNotifications = enabled; }
+
+    /* number of bytes which fit into single write with the negotiated MTU */
+    int getPayloadSize() { return mMtu - ATT_HEADER_SIZE; }
+
+    /* make sure the next chunk is waiting in the operation queue */
+    private void pumpWriteQueue() {
+        // while the link is down data just wait in the queue
+        if (!mConnected || tx == null) return;
+        if (mReliableEnabled) {
+            pumpReliable();
+            return;
         }
+        if (!mWriteQueue.hasPending()) return;
+        if (getBytesQueued() >= BULK_TRANSFER_THRESHOLD) startHighThroughput();
+        mOperations.enqueue(mUartWrite);
     }
 
-    /* defines (in milliseconds) how often RSSI should be updated */
-    private static final int RSSI_UPDATE_TIME_INTERVAL = 1500; // 1.5 seconds
+    /* UART traffic (in any direction) of at least this many bytes per second is
+     * a bulk transfer worth the short connection interval and 2M PHY */
+    private static final int BULK_TRANSFER_THRESHOLD = 2 * 1024;
+    /* how often the boosted link is checked for being idle */
+    private static final long LINK_IDLE_CHECK_INTERVAL = 1000;
+    /* boosted link without any UART traffic for this long goes back to idle parameters */
+    private static final long LINK_IDLE_TIMEOUT = 3 * 1000;
+
+    /* throughput boost state, owned by the event loop */
+    private boolean mAutoBoost = true;
+    private int mIdleConnectionPriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+    private volatile boolean mHighThroughput = false;
+    private long mLastTraffic = 0;
+    private long mTrafficMark = 0;
+    private long mRxWindowStart = 0;
+    private int mRxWindowBytes = 0;
+    /* PHYs of the current connection as last reported by the stack */
+    private volatile int mTxPhy = BluetoothDevice.PHY_LE_1M;
+    private volatile int mRxPhy = BluetoothDevice.PHY_LE_1M;
+
+    /* with <enabled> the wrapper asks for high connection priority and 2M PHY (API 26+)
+     * while UART data are being transferred in bulk, and goes back to <idlePriority>
+     * (BluetoothGatt.CONNECTION_PRIORITY_BALANCED or _LOW_POWER) and 1M PHY once the link is idle */
+    void setAutoBoost(boolean enabled, int idlePriority) {
+        mHandler.obtainMessage(MSG_SET_AUTO_BOOST, idlePriority, 0, enabled).sendToTarget();
+    }
+
+    boolean isHighThroughput() { return mHighThroughput; }
+    int getTxPhy() { return mTxPhy; }
+    int getRxPhy() { return mRxPhy; }
+
+    private void handleSetAutoBoost(boolean enabled, int idlePriority) {
+        mAutoBoost = enabled;
+        mIdleConnectionPriority = idlePriority;
+        if (!enabled) stopHighThroughput();
+        else if (mConnected && !mHighThroughput && mBluetoothGatt != null) {
+            mBluetoothGatt.requestConnectionPriority(mIdleConnectionPriority);
+        }
+    }
+
+    /* counts received UART bytes per second, a burst big enough starts the boost */
+    private void countReceived(int length) {
+        if (!mAutoBoost || mHighThroughput) return;
+        long now = SystemClock.elapsedRealtime();
+        if (now - mRxWindowStart >= 1000) {
+            mRxWindowStart = now;
+            mRxWindowBytes = 0;
+        }
+        mRxWindowBytes += length;
+        if (mRxWindowBytes >= BULK_TRANSFER_THRESHOLD) startHighThroughput();
+    }
+
+    private void startHighThroughput() {
+        if (!mAutoBoost || mHighThroughput || !mConnected || mBluetoothGatt == null) return;
+        mHighThroughput = true;
+        // neither request has to wait for the operation queue - they don't occupy the ATT bearer
+        mBluetoothGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && mBluetoothAdapter.isLe2MPhySupported()) {
+            mBluetoothGatt.setPreferredPhy(BluetoothDevice.PHY_LE_2M_MASK, BluetoothDevice.PHY_LE_2M_MASK,
+                                           BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+        }
+        mLastTraffic = SystemClock.elapsedRealtime();
+        mTrafficMark = mBytesSent + mBytesReceived;
+        mHandler.postDelayed(mLinkIdleCheck, LINK_IDLE_CHECK_INTERVAL);
+    }
+
+    /* goes back to idle parameters; nothing is requested when the link is already down */
+    private void stopHighThroughput() {
+        mHandler.removeCallbacks(mLinkIdleCheck);
+        if (!mHighThroughput) return;
+        mHighThroughput = false;
+        if (!mConnected || mBluetoothGatt == null) return;
+        mBluetoothGatt.requestConnectionPriority(mIdleConnectionPriority);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && mBluetoothAdapter.isLe2MPhySupported()) {
+            // 1M PHY has better range, speed doesn't matter while idle
+            mBluetoothGatt.setPreferredPhy(BluetoothDevice.PHY_LE_1M_MASK, BluetoothDevice.PHY_LE_1M_MASK,
+                                           BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+        }
+    }
+
+    /* runs only while the link is boosted */
+    private final Runnable mLinkIdleCheck = new Runnable() {
+        @Override
+        public void run() {
+            long now = SystemClock.elapsedRealtime();
+            long traffic = mBytesSent + mBytesReceived;
+            if (traffic != mTrafficMark || mWriteQueue.hasPending()) {
+                mTrafficMark = traffic;
+                mLastTraffic = now;
+            }
+            else if (now - mLastTraffic >= LINK_IDLE_TIMEOUT) {
+                stopHighThroughput();
+                return;
+            }
+            mHandler.postDelayed(this, LINK_IDLE_CHECK_INTERVAL);
+        }
+    };
+
+    private void handlePhyUpdate(int txPhy, int rxPhy, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            mTxPhy = txPhy;
+            mRxPhy = rxPhy;
+        }
+        mUiCallback.uiPhyUpdated(mBluetoothGatt, mBluetoothDevice, txPhy, rxPhy, status);
+    }
+
+    /* writes next chunk of UART data - single operation object put back into
+     * the queue after every chunk, so UART data don't starve other requests
+     * of the same priority and nothing is allocated per chunk */
+    private final GattOperation mUartWrite = new GattOperation(GattOperation.PRIORITY_DATA, null) {
+        private int mChunkLength;
+
+        @Override
+        boolean execute(BluetoothGatt gatt) {
+            byte[] chunk = mWriteQueue.peekChunk();
+            if (chunk == null) return false;
+
+            // Update TX characteristic value.  Note the setValue overload that takes a byte array must be used.
+            tx.setWriteType(mWriteType);
+            tx.setValue(mFlowControlEnabled ? mFlowControl.wrapData(chunk) : chunk);
+            if (!gatt.writeCharacteristic(tx)) return false;
+            // chunk is taken from the queue only once it is confirmed - after
+            // timeout the same chunk is written again
+            mChunkLength = chunk.length;
+            return true;
+        }
+
+        @Override
+        boolean isAnsweredBy(int type, Object target) {
+            return type == CALLBACK_CHARACTERISTIC_WRITE && target == tx;
+        }
+
+        @Override
+        boolean isObsolete() {
+            return tx == null || mReliableEnabled || !mWriteQueue.hasPending() || (mFlowControlEnabled && !mFlowControl.canSend());
+        }
+
+        @Override
+        void onComplete(int status, byte[] value) {
+            // chunk stays queued and is written again once the link is back
+            if (status == GattOperationQueue.STATUS_DISCONNECTED) return;
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mWriteQueue.commitChunk(mChunkLength);
+                mBytesSent += mChunkLength;
+                if (mFlowControlEnabled) mFlowControl.onDataSent();
+            }
+            handleUartWrite(status);
+        }
+    };
+
+    /* credit based flow control, see UartFlowControl; owned by the event loop */
+    private final UartFlowControl mFlowControl = new UartFlowControl();
+    private boolean mFlowControlEnabled = false;
+    /* credits carried by the grant being written */
+    private int mGrantedCredits = 0;
+
+    /* with <enabled> every UART packet carries the flow control header - the peripheral
+     * firmware has to speak the same protocol. Credits start from zero, so it's best
+     * set before connecting */
+    void setFlowControl(boolean enabled) {
+        mHandler.obtainMessage(MSG_SET_FLOW_CONTROL, enabled).sendToTarget();
+    }
+
+    private void handleSetFlowControl(boolean enabled) {
+        mFlowControlEnabled = enabled;
+        // the two protocols don't mix
+        if (enabled) stopReliableTransport();
+        mFlowControl.reset();
+        setMtu(mMtu);
+        grantCredits();
+        pumpWriteQueue();
+    }
+
+    /* handles notification of RX characteristic */
+    private void handleUartData(byte[] value) {
+        if (mReliableEnabled) {
+            // data go to the receiver through the transport's link, verified and in order
+            mReliable.onPacket(value, 0, value.length, SystemClock.elapsedRealtime());
+            return;
+        }
+        int offset = 0;
+        if (mFlowControlEnabled) {
+            offset = mFlowControl.onPacket(value);
+            if (offset < 0) {
+                // credit grant - maybe we can send again
+                pumpWriteQueue();
+                return;
+            }
+        }
+        int length = value.length - offset;
+        mBytesReceived += length;
+        countReceived(length);
+        // UART data - straight into the receive buffer, no parsing needed
+        mReceiver.onData(value, offset, length);
+        grantCredits();
+    }
+
+    /* reliable transport, see ReliableTransport; owned by the event loop */
+    private boolean mReliableEnabled = false;
+
+    /* with <enabled> the UART byte stream goes through ReliableTransport - packets with
+     * sequence numbers and CRC, acknowledged and retransmitted when lost or corrupted.
+     * The peripheral firmware has to speak the same protocol. Turns flow control off */
+    void setReliableTransport(boolean enabled) {
+        mHandler.obtainMessage(MSG_SET_RELIABLE_TRANSPORT, enabled).sendToTarget();
+    }
+
+    private void handleSetReliableTransport(boolean enabled) {
+        if (!enabled) {
+            stopReliableTransport();
+            setMtu(mMtu);
+            return;
+        }
+        mFlowControlEnabled = false;
+        mReliableEnabled = true;
+        setMtu(mMtu);
+        // when connected the peer has to learn about the new session right away,
+        // otherwise it starts with subscribing on the next connection
+        if (mConnected && tx != null) mReliable.resetSession();
+    }
+
+    private void stopReliableTransport() {
+        if (!mReliableEnabled) return;
+        mReliableEnabled = false;
+        mHandler.removeCallbacks(mReliableTimer);
+        // segments the peer didn't acknowledge go away with the transport, so the
+        // transfer has a hole and can't go on - it fails like any other write
+        mReliable.clear();
+        if (mWriteQueue.getInFlightCount() > 0) handleUartWrite(GattOperationQueue.STATUS_CANCELLED);
+    }
+
+    /* hands the transport as much of the write queue as its window takes - it keeps
+     * copies of segments until they are acknowledged, so they count as committed */
+    private void pumpReliable() {
+        byte[] chunk;
+        while (mReliable.hasWindowSpace() && (chunk = mWriteQueue.peekChunk()) != null) {
+            mReliable.offer(chunk, 0, chunk.length);
+            mWriteQueue.commitChunk(chunk.length);
+        }
+        if (getBytesQueued() >= BULK_TRANSFER_THRESHOLD) startHighThroughput();
+        if (mReliable.hasPacket()) mOperations.enqueue(mReliableWrite);
+    }
+
+    private final ReliableTransport.Link mReliableLink = new ReliableTransport.Link() {
+        @Override
+        public void onPacketReady() {
+            if (mConnected && tx != null) mOperations.enqueue(mReliableWrite);
+        }
+
+        @Override
+        public void onReceive(byte[] data, int offset, int length) {
+            mBytesReceived += length;
+            countReceived(length);
+            mReceiver.onData(data, offset, length);
+        }
+
+        @Override
+        public void onAcked(int length) {
+            mBytesSent += length;
+            handleUartWrite(BluetoothGatt.GATT_SUCCESS);
+        }
+
+        @Override
+        public void onFailed() {
+            handleUartWrite(GattOperationQueue.STATUS_TIMEOUT);
+        }
+
+        @Override
+        public void schedule(long delay) {
+            mHandler.removeCallbacks(mReliableTimer);
+            if (delay >= 0) mHandler.postDelayed(mReliableTimer, delay);
+        }
+    };
+
+    private final ReliableTransport mReliable = new ReliableTransport(mReliableLink);
+
+    private final Runnable mReliableTimer = new Runnable() {
+        @Override
+        public void run() {
+            if (mReliableEnabled && mConnected) mReliable.onTimer(SystemClock.elapsedRealtime());
+        }
+    };
+
+    /* writes packets of the reliable transport - new data, retransmissions and ACKs
+     * alike; the window, not the write confirmation, decides how much is in flight.
+     * Always without response, waiting for the peripheral would make the window useless */
+    private final GattOperation mReliableWrite = new GattOperation(GattOperation.PRIORITY_DATA, null) {
+        /* packet refused by busy stack is written again, not taken anew */
+        private byte[] mPacket = null;
+
+        @Override
+        boolean execute(BluetoothGatt gatt) {
+            if (mPacket == null) mPacket = mReliable.pollPacket(SystemClock.elapsedRealtime());
+            if (mPacket == null) return false;
+            tx.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            tx.setValue(mPacket);
+            return gatt.writeCharacteristic(tx);
+        }
+
+        @Override
+        boolean isAnsweredBy(int type, Object target) {
+            return type == CALLBACK_CHARACTERISTIC_WRITE && target == tx;
+        }
+
+        @Override
+        boolean isObsolete() {
+            return tx == null || !mReliableEnabled || (mPacket == null && !mReliable.hasPacket());
+        }
+
+        @Override
+        void onComplete(int status, byte[] value) {
+            // failed write needs no special care - the transport retransmits whatever isn't acknowledged
+            mPacket = null;
+            if (status == GattOperationQueue.STATUS_DISCONNECTED) return;
+            if (mReliable.hasPacket()) mOperations.enqueue(this);
+        }
+    };
+
+    /* gives the peripheral credits for room freed in our receive buffer */
+    private void grantCredits() {
+        if (!mFlowControlEnabled || !mConnected || tx == null || mCreditWrite.queued) return;
+        int packets = mReceiver.getFree() / Math.max(1, mWriteQueue.getChunkSize());
+        mGrantedCredits = mFlowControl.creditsToGrant(packets);
+        if (mGrantedCredits > 0) mOperations.enqueue(mCreditWrite);
+    }
+
+    /* writes credit grant - ahead of UART data, so the peer doesn't wait for it behind our own transfer */
+    private final GattOperation mCreditWrite = new GattOperation(GattOperation.PRIORITY_CONTROL, null) {
+        @Override
+        boolean execute(BluetoothGatt gatt) {
+            tx.setWriteType(mWriteType);
+            tx.setValue(mFlowControl.grantPacket(mGrantedCredits));
+            return gatt.writeCharacteristic(tx);
+        }
+
+        @Override
+        boolean isAnsweredBy(int type, Object target) {
+            return type == CALLBACK_CHARACTERISTIC_WRITE && target == tx;
+        }
+
+        @Override
+        boolean isObsolete() {
+            return tx == null || !mFlowControlEnabled;
+        }
+
+        @Override
+        void onComplete(int status, byte[] value) {
+            if (status == BluetoothGatt.GATT_SUCCESS) mFlowControl.onGranted(mGrantedCredits);
+            mGrantedCredits = 0;
+            // anything freed meanwhile (or grant which failed) goes in the next one
+            if (status != GattOperationQueue.STATUS_DISCONNECTED) grantCredits();
+        }
+    };
+
+    private void setMtu(int mtu) {
+        mMtu = mtu;
+        // flow control header takes one byte of every packet, reliable transport adds header and CRC
+        int overhead = mFlowControlEnabled ? UartFlowControl.HEADER_SIZE
+                     : mReliableEnabled ? ReliableTransport.DATA_OVERHEAD : 0;
+        mReliable.setMaxPacketSize(getPayloadSize());
+        mWriteQueue.setChunkSize(getPayloadSize() - overhead);
+    }
+
+    /* UART data not delivered yet are given up - with them the segments the reliable
+     * transport keeps for retransmission, which would otherwise be renumbered by the
+     * next session and sent to whatever peripheral we connect to next */
+    private void dropPendingWrites() {
+        mWriteQueue.clear();
+        mReliable.clear();
+        mHandler.removeCallbacks(mReliableTimer);
+    }
+
+    /* called for every write confirmed (or rejected) on TX characteristic */
+    private void handleUartWrite(int status) {
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            dropPendingWrites();
+            String description = "Device: " + mBluetoothDevice.getName() + " UART TX";
+            mUiCallback.uiFailedWrite(mBluetoothGatt, mBluetoothDevice, mBluetoothSelectedService, tx, description + " STATUS = " + status);
+            return;
+        }
+
+        mWriteQueue.ackChunk();
+        pumpWriteQueue();
+        mUiCallback.uiWriteProgress(mBluetoothGatt, mBluetoothDevice,
+                                    mWriteQueue.getBytesAcked(),
+                                    mWriteQueue.getBytesTotal(),
+                                    mWriteQueue.getBytesPerSecond());
+    }
+
+    /* defines (in milliseconds) how often RSSI should be updated - while the link is idle
+     * and at most while UART data are being sent */
+    static final int RSSI_UPDATE_TIME_INTERVAL = 1500; // 1.5 seconds
+    static final int RSSI_MAX_UPDATE_TIME_INTERVAL = 12000; // 12 seconds
 
     /* callback object through which we are returning results to the caller */
     private BleWrapperUiCallbacks mUiCallback = null;
     /* define NULL object for UI callbacks */
     private static final BleWrapperUiCallbacks NULL_CALLBACK = new BleWrapperUiCallbacks.Null();
 
-    /* creates BleWrapper object, set its parent activity and callback object */
-    BleWrapper(Activity parent, BleWrapperUiCallbacks callback) {
+    /* creates BleWrapper object, set its parent context and callback object;
+     * all callbacks except scanning ones are called from the wrapper's event loop thread */
+    BleWrapper(Context parent, BleWrapperUiCallbacks callback) {
+    	this(parent, callback, null, null);
+    }
+
+    /* creates BleWrapper running on event loop <looper> shared with other links, GATT
+     * requests of all of them are then taken in turns by <scheduler> (which has to be
+     * used only with this looper); null looper makes the wrapper start its own loop */
+    /* runs <task> on the link's event loop thread, after everything the link already has to do */
+    void post(Runnable task) {
+    	mHandler.post(task);
+    }
+
+    BleWrapper(Context parent, BleWrapperUiCallbacks callback, Looper looper, GattScheduler scheduler) {
         this.tx = null;
         this.rx = null;
 
     	this.mParent = parent;
     	mUiCallback = callback;
+    	BleNamesResolver.initialize(parent);
     	if(mUiCallback == null) mUiCallback = NULL_CALLBACK;
+
+    	if(looper == null) {
+    		mLoopThread = new HandlerThread("BleWrapper", Process.THREAD_PRIORITY_FOREGROUND);
+    		mLoopThread.start();
+    		looper = mLoopThread.getLooper();
+    	}
+    	else {
+    		mLoopThread = null;
+    	}
+    	mHandler = new Handler(looper, mEventLoop);
+    	mOperations = new GattOperationQueue(mHandler, scheduler);
     }
 
     public BluetoothManager           getManager() { return mBluetoothManager; }
@@ -119,15 +634,47 @@ class BleWrapper {
 		return adapter.isEnabled();
 	}
 
-	/* start scanning for BT LE devices around */
-	void startScanning() {
+	/* set scan mode used by next startScanning() - one of ScanSettings.SCAN_MODE_LOW_POWER,
+	 * SCAN_MODE_BALANCED or SCAN_MODE_LOW_LATENCY */
+	void setScanMode(int scanMode) {
+		mScanMode = scanMode;
+	}
+
+	int getScanMode() { return mScanMode; }
+
+	/* let the controller collect scan results and deliver them in batches every <millis>,
+	 * 0 delivers every result immediately. Ignored if the controller can't batch results */
+	void setScanReportDelay(long millis) {
+		mScanReportDelay = millis;
+	}
+
+	/* set which advertisers should be reported by next startScanning(), null for all of them */
+	void setScanFilter(ScanFilterSettings filter) {
+		mScanFilter = (filter != null) ? filter : new ScanFilterSettings();
+	}
+
+	/* start scanning for BT LE devices around. Returns false if BT is off */
+	boolean startScanning() {
+		BluetoothLeScanner scanner = mBluetoothAdapter.getBluetoothLeScanner();
+		// scanner is null while BT is turned off
+		if(scanner == null) return false;
         ScanSettings.Builder builder = new ScanSettings.Builder();
-        mBluetoothAdapter.getBluetoothLeScanner().startScan(null, builder.build(), mDeviceFoundCallback);
+        builder.setScanMode(mScanMode);
+        if(mScanReportDelay > 0 && mBluetoothAdapter.isOffloadedScanBatchingSupported()) {
+        	builder.setReportDelay(mScanReportDelay);
+        }
+        scanner.startScan(mScanFilter.buildFilters(), builder.build(), mDeviceFoundCallback);
+        return true;
 	}
 
 	/* stops current scanning */
 	void stopScanning() {
-		mBluetoothAdapter.getBluetoothLeScanner().stopScan(mDeviceFoundCallback);
+		BluetoothLeScanner scanner = mBluetoothAdapter.getBluetoothLeScanner();
+		// scanner is null when BT was turned off meanwhile
+		if(scanner == null) return;
+		// deliver results still waiting in the controller's batch
+		if(mScanReportDelay > 0) scanner.flushPendingScanResults(mDeviceFoundCallback);
+		scanner.stopScan(mDeviceFoundCallback);
 	}
 
     /* initialize BLE and get BT Manager & Adapter */
@@ -146,17 +693,52 @@ class BleWrapper {
         return true;
     }
 
-    /* connect to the device with specified address */
+    /* connect to the device with specified address, returns false if the address is not valid;
+     * the result of the connection attempt is reported through the callback object */
     boolean connect(final String deviceAddress) {
-        String mDeviceAddress;
-
         if (mBluetoothAdapter == null || deviceAddress == null) return false;
-        mDeviceAddress = deviceAddress;
+        if (!BluetoothAdapter.checkBluetoothAddress(deviceAddress)) return false;
+        mHandler.obtainMessage(MSG_CONNECT, deviceAddress).sendToTarget();
+        return true;
+    }
+
+    /* with <enabled> the connection is made by the controller in background as soon as the
+     * device advertises (slower, but no timeout) and a lost link is re-established the same
+     * way, on the warm client; otherwise connect() and every reconnection attempt connect
+     * directly, on a new client, for at most CONNECT_TIMEOUT. Takes effect with the next connect() */
+    void setAutoConnect(boolean enabled) {
+    	mAutoConnect = enabled;
+    }
+
+    boolean isAutoConnect() { return mAutoConnect; }
 
+    /* lost link (or failed connection attempt) is retried up to <maxAttempts> times, the n-th
+     * attempt after random delay between half and full of <initialDelay> * 2^n ms, capped
+     * at <maxDelay> ms. Zero <maxAttempts> turns reconnecting off. The counter starts from
+     * zero with every successful connection and every connect() */
+    void setReconnectPolicy(int maxAttempts, long initialDelay, long maxDelay) {
+    	mMaxReconnectAttempts = Math.max(0, maxAttempts);
+    	mReconnectInitialDelay = Math.max(1, initialDelay);
+    	mReconnectMaxDelay = Math.max(mReconnectInitialDelay, maxDelay);
+    }
+
+    private void handleConnect(final String deviceAddress) {
+    	boolean sameDevice = mBluetoothGatt != null && mBluetoothGatt.getDevice().getAddress().equals(deviceAddress);
+    	if(mConnected && sameDevice) return;
+    	mDisconnectRequested = false;
+    	// explicit request goes right away, whatever backoff was running
+    	mHandler.removeCallbacks(mReconnect);
+    	mReconnectAttempt = 0;
+    	openGatt(deviceAddress);
+    }
+
+    private void openGatt(final String mDeviceAddress) {
+        mHandler.removeCallbacks(mConnectTimeout);
         // check if we need to connect from scratch or just reconnect to previous device
-        if(mBluetoothGatt != null && mBluetoothGatt.getDevice().getAddress().equals(deviceAddress)) {
-        	// just reconnect
-        	return mBluetoothGatt.connect();
+        if(mAutoConnect && mBluetoothGatt != null && mBluetoothGatt.getDevice().getAddress().equals(mDeviceAddress)) {
+        	// background connection on the warm client - BluetoothGatt.connect() always waits
+        	// for the device in background, so it's no use for direct connections
+        	mBluetoothGatt.connect();
         }
         else {
         	// connect from scratch
@@ -164,87 +746,201 @@ class BleWrapper {
             mBluetoothDevice = mBluetoothAdapter.getRemoteDevice(mDeviceAddress);
             if (mBluetoothDevice == null) {
                 // we got wrong address - that device is not available!
-                return false;
+                return;
+            }
+            // the old client would only reconnect in background
+            closeGatt();
+            // connect with remote device, over LE even if it's a dual mode one
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            	mBluetoothGatt = mBluetoothDevice.connectGatt(mParent, mAutoConnect, mBleCallback, BluetoothDevice.TRANSPORT_LE);
+            }
+            else {
+            	mBluetoothGatt = mBluetoothDevice.connectGatt(mParent, mAutoConnect, mBleCallback);
             }
-            // connect with remote device
-        	mBluetoothGatt = mBluetoothDevice.connectGatt(mParent, false, mBleCallback);
+        	mOperations.setGatt(mBluetoothGatt);
+        	// direct connection is given up by the stack only after ~30 s (if at all) - attempts
+        	// of the backoff have their own, shorter limit
+        	if(!mAutoConnect) mHandler.postDelayed(mConnectTimeout, CONNECT_TIMEOUT);
         }
-        return true;
     }
 
+    /* drops the stack's client together with everything found on it */
+    private void closeGatt() {
+    	mOperations.setGatt(null);
+    	if(mBluetoothGatt != null) mBluetoothGatt.close();
+    	mBluetoothGatt = null;
+    	forgetServices();
+    }
+
+    /* direct connection attempt didn't make it in time */
+    private final Runnable mConnectTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if(mConnected || mDisconnectRequested) return;
+            // closing the client is the only way to cancel the attempt; no callback comes after it
+            closeGatt();
+            if(scheduleReconnect(GATT_ERROR)) return;
+            dropPendingWrites();
+            mUiCallback.uiDeviceDisconnected(mBluetoothGatt, mBluetoothDevice);
+        }
+    };
+
     /* disconnect the device. It is still possible to reconnect to it later with this Gatt client */
     void disconnect() {
+    	mHandler.sendEmptyMessage(MSG_DISCONNECT);
+    }
+
+    private void handleDisconnect() {
+    	mDisconnectRequested = true;
+    	mHandler.removeCallbacks(mReconnect);
+    	mHandler.removeCallbacks(mConnectTimeout);
+    	mReconnectAttempt = 0;
+    	// data waiting for reconnection are not sent anymore
+    	dropPendingWrites();
+    	cancelRssiPolling();
+    	mOperations.cancelAll(GattOperationQueue.STATUS_DISCONNECTED);
     	if(mBluetoothGatt != null) mBluetoothGatt.disconnect();
     	 mUiCallback.uiDeviceDisconnected(mBluetoothGatt, mBluetoothDevice);
     }
 
-    /* close GATT client completely */
+    /* close GATT client completely; the wrapper's event loop ends too, so the wrapper
+     * can't be used for connecting anymore after that */
     void close() {
-    	if(mBluetoothGatt != null) mBluetoothGatt.close();
-    	mBluetoothGatt = null;
+    	mHandler.sendEmptyMessage(MSG_CLOSE);
     }
 
-    /* request new RSSi value for the connection*/
-    private void readPeriodicalyRssiValue(final boolean repeat) {
-    	mTimerEnabled = repeat;
-    	// check if we should stop checking RSSI value
-    	if(!mConnected || mBluetoothGatt == null || !mTimerEnabled) {
-    		mTimerEnabled = false;
-    		return;
-    	}
+    private void handleClose() {
+    	mDisconnectRequested = true;
+    	dropPendingWrites();
+    	cancelRssiPolling();
+    	mOperations.cancelAll(GattOperationQueue.STATUS_DISCONNECTED);
+    	closeGatt();
+    	mHandler.removeCallbacksAndMessages(null);
+    	// shared loop belongs to whoever created it
+    	if(mLoopThread != null) mLoopThread.quitSafely();
+    }
+
+    /* enables or disables periodic RSSI reading of the connection; while the link
+     * is idle RSSI is read every <minInterval> ms, while UART data are being sent
+     * the interval doubles up to <maxInterval> ms and no read is issued at all */
+    void setRssiPolling(boolean enabled, int minInterval, int maxInterval) {
+    	mHandler.obtainMessage(MSG_SET_RSSI_POLLING, minInterval, maxInterval, enabled).sendToTarget();
+    }
 
-    	mTimerHandler.postDelayed(new Runnable() {
-			@Override
-			public void run() {
-				if(mBluetoothGatt == null ||
-				   mBluetoothAdapter == null ||
-				   !mConnected)
-				{
-					mTimerEnabled = false;
-					return;
-				}
-
-				// request RSSI value
-				mBluetoothGatt.readRemoteRssi();
-				// add call it once more in the future
-				readPeriodicalyRssiValue(mTimerEnabled);
-			}
-    	}, RSSI_UPDATE_TIME_INTERVAL);
+    private void handleSetRssiPolling(boolean enabled, int minInterval, int maxInterval) {
+    	mRssiPollingEnabled = enabled;
+    	mRssiMinInterval = Math.max(100, minInterval);
+    	mRssiMaxInterval = Math.max(mRssiMinInterval, maxInterval);
+    	if(!enabled) cancelRssiPolling();
+    	else if(mConnected && !mRssiMonitoring) startMonitoringRssiValue();
     }
 
+    private final GattOperation mRssiRead = new GattOperation.ReadRssi();
+
+    /* single tick of RSSI polling, reposts itself while monitoring is on */
+    private final Runnable mRssiTick = new Runnable() {
+    	@Override
+    	public void run() {
+    		if(!mRssiMonitoring || !mConnected || mBluetoothGatt == null) {
+    			mRssiMonitoring = false;
+    			return;
+    		}
+
+    		// RSSI read has the lowest priority anyway; while UART data are
+    		// being sent don't even queue it, just check again later
+    		if(mWriteQueue.isIdle()) {
+    			mOperations.enqueue(mRssiRead);
+    			mRssiInterval = Math.max(mRssiMinInterval, mRssiInterval / 2);
+    		}
+    		else {
+    			mRssiInterval = Math.min(mRssiMaxInterval, mRssiInterval * 2);
+    		}
+    		mHandler.postDelayed(this, mRssiInterval);
+    	}
+    };
+
     /* starts monitoring RSSI value */
     private void startMonitoringRssiValue() {
-    	readPeriodicalyRssiValue(true);
+    	if(!mRssiPollingEnabled) return;
+    	mHandler.removeCallbacks(mRssiTick);
+    	mRssiMonitoring = true;
+    	mRssiInterval = mRssiMinInterval;
+    	mHandler.postDelayed(mRssiTick, mRssiInterval);
     }
 
     /* stops monitoring of RSSI value */
     void stopMonitoringRssiValue() {
-    	readPeriodicalyRssiValue(false);
+    	mHandler.sendEmptyMessage(MSG_STOP_RSSI_POLLING);
+    }
+
+    /* no tick is left pending after that */
+    private void cancelRssiPolling() {
+    	mRssiMonitoring = false;
+    	mHandler.removeCallbacks(mRssiTick);
     }
 
     /* request to discover all services available on the remote devices
-     * results are delivered through callback object */
+     * results are delivered through callback object.
+     * Android keeps a persistent GATT cache only for bonded peripherals - only for
+     * those is discovery answered from the cache without going over the air. Typical
+     * UART peripherals are not bonded, so every connection pays full discovery (a few
+     * hundred ms up to seconds, depending on connection interval and the GATT table)
+     * before the first byte can be sent. The app can't skip it by remembering TX/RX
+     * handles itself: BluetoothGatt accepts only characteristics from its own discovery */
     private void startServicesDiscovery() {
-    	if(mBluetoothGatt != null) mBluetoothGatt.discoverServices();
+    	mOperations.enqueue(new GattOperation.DiscoverServices());
     }
 
     /* gets services and calls UI callback to handle them
      * before calling getServices() make sure service discovery is finished! */
     private void getSupportedServices() {
-    	if(mBluetoothGattServices != null && mBluetoothGattServices.size() > 0) mBluetoothGattServices.clear();
     	// keep reference to all services in local array:
         if(mBluetoothGatt != null) mBluetoothGattServices = mBluetoothGatt.getServices();
 
         // Save reference to each UART characteristic.
-        tx = mBluetoothGatt.getService(UART_UUID).getCharacteristic(TX_UUID);
-        rx = mBluetoothGatt.getService(UART_UUID).getCharacteristic(RX_UUID);
+        BluetoothGattService uart = mBluetoothGatt.getService(UART_UUID);
+        tx = (uart != null) ? uart.getCharacteristic(TX_UUID) : null;
+        rx = (uart != null) ? uart.getCharacteristic(RX_UUID) : null;
+        // service picked before reconnecting is looked up again in what was found now
+        if(mBluetoothSelectedService != null) {
+            mBluetoothSelectedService = mBluetoothGatt.getService(mBluetoothSelectedService.getUuid());
+        }
 
+        subscribeLink();
         mUiCallback.uiAvailableServices(mBluetoothGatt, mBluetoothDevice, mBluetoothGattServices);
+        // data queued while the link was down
+        pumpWriteQueue();
+    }
+
+    /* subscribes to RX notifications - the peripheral keeps the subscription only while
+     * connected (unless bonded), so this is done on every connection */
+    private void subscribeLink() {
+        // UART device sends data to us through notifications of RX characteristic
+        mReceiver.clear();
+        GattOperation subscribe = (rx != null) ? enableNotification(rx, true) : null;
+        if(subscribe != null) mOperations.enqueue(subscribe);
+
+        // with flow control the peripheral may send nothing until we give it credits
+        mFlowControl.reset();
+        grantCredits();
+        // reliable transport starts a new session on every connection
+        if (mReliableEnabled) mReliable.resetSession();
+    }
+
+    private void forgetServices() {
+        mBluetoothGattServices = null;
+        mBluetoothSelectedService = null;
+        tx = null;
+        rx = null;
     }
 
     /* get all characteristic for particular service and pass them to the UI callback */
     public void getCharacteristicsForService(final BluetoothGattService service) {
     	if(service == null) return;
+    	mHandler.obtainMessage(MSG_SELECT_SERVICE, service).sendToTarget();
+    }
+
+    private void handleSelectService(final BluetoothGattService service) {
     	List<BluetoothGattCharacteristic> chars = null;
 
     	chars = service.getCharacteristics();
@@ -253,12 +949,18 @@ class BleWrapper {
     	mBluetoothSelectedService = service;
     }
 
-    /* request to fetch newest value stored on the remote device for particular characteristic */
-    public void requestCharacteristicValue(BluetoothGattCharacteristic ch) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) return;
+    /* request to fetch newest value stored on the remote device for particular characteristic;
+     * new value is also passed to the callback object. Returns null if not connected */
+    public GattFuture requestCharacteristicValue(BluetoothGattCharacteristic ch) {
+        if (mBluetoothAdapter == null || mBluetoothGatt == null || ch == null) return null;
+
+        return enqueue(new GattOperation.ReadCharacteristic(ch, GattOperation.PRIORITY_NORMAL));
+    }
 
-        mBluetoothGatt.readCharacteristic(ch);
-        // new value available will be notified in Callback Object
+    /* hands operation created by the caller over to the event loop */
+    private GattFuture enqueue(GattOperation operation) {
+        mHandler.obtainMessage(MSG_ENQUEUE, operation).sendToTarget();
+        return operation.future;
     }
 
     /* get characteristic's value (and parse it for some types of characteristics)
@@ -267,75 +969,26 @@ class BleWrapper {
         if (mBluetoothAdapter == null || mBluetoothGatt == null || ch == null) return;
 
         byte[] rawValue = ch.getValue();
-        String strValue = null;
-        int intValue = 0;
+        if (rawValue == null) return;
 
         // lets read and do real parsing of some characteristic to get meaningful value from it
-        UUID uuid = ch.getUuid();
-
-        if(uuid.equals(BleDefinedUUIDs.Characteristic.HEART_RATE_MEASUREMENT)) { // heart rate
-        	// follow https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.heart_rate_measurement.xml
-        	// first check format used by the device - it is specified in bit 0 and tells us if we should ask for index 1 (and uint8) or index 2 (and uint16)
-        	int index = ((rawValue[0] & 0x01) == 1) ? 2 : 1;
-        	// also we need to define format
-        	int format = (index == 1) ? BluetoothGattCharacteristic.FORMAT_UINT8 : BluetoothGattCharacteristic.FORMAT_UINT16;
-        	// now we have everything, get the value
-        	intValue = ch.getIntValue(format, index);
-        	strValue = intValue + " bpm"; // it is always in bpm units
-        }
-        else if (uuid.equals(BleDefinedUUIDs.Characteristic.HEART_RATE_MEASUREMENT) || // manufacturer name string
-        		 uuid.equals(BleDefinedUUIDs.Characteristic.MODEL_NUMBER_STRING) || // model number string)
-        		 uuid.equals(BleDefinedUUIDs.Characteristic.FIRMWARE_REVISION_STRING)) // firmware revision string
-        {
-        	// follow https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.manufacturer_name_string.xml etc.
-        	// string value are usually simple utf8s string at index 0
-        	strValue = ch.getStringValue(0);
-        }
-        else if(uuid.equals(BleDefinedUUIDs.Characteristic.APPEARANCE)) { // appearance
-        	// follow: https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.gap.appearance.xml
-        	intValue  = ((int)rawValue[1]) << 8;
-        	intValue += rawValue[0];
-        	strValue = BleNamesResolver.resolveAppearance(intValue);
-        }
-        else if(uuid.equals(BleDefinedUUIDs.Characteristic.BODY_SENSOR_LOCATION)) { // body sensor location
-        	// follow: https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.body_sensor_location.xml
-        	intValue = rawValue[0];
-        	strValue = BleNamesResolver.resolveHeartRateSensorLocation(intValue);
-        }
-        else if(uuid.equals(BleDefinedUUIDs.Characteristic.BATTERY_LEVEL)) { // battery level
-        	// follow: https://developer.bluetooth.org/gatt/characteristics/Pages/CharacteristicViewer.aspx?u=org.bluetooth.characteristic.battery_level.xml
-        	intValue = rawValue[0];
-        	strValue = "" + intValue + "% battery level";
-        }
-        else {
-        	// not known type of characteristic, so we need to handle this in "general" way
-        	// get first four bytes and transform it to integer
-        	intValue = 0;
-        	if(rawValue.length > 0) intValue = (int)rawValue[0];
-        	if(rawValue.length > 1) intValue = intValue + ((int)rawValue[1] << 8);
-        	if(rawValue.length > 2) intValue = intValue + ((int)rawValue[2] << 8);
-        	if(rawValue.length > 3) intValue = intValue + ((int)rawValue[3] << 8);
-
-            if (rawValue.length > 0) {
-                final StringBuilder stringBuilder = new StringBuilder(rawValue.length);
-                for(byte byteChar : rawValue) {
-                    stringBuilder.append(String.format("%c", byteChar));
-                }
-                strValue = stringBuilder.toString();
-            }
-        }
+        mDecodedValue.clear();
+        mDecoders.find(ch.getUuid()).decode(rawValue, mDecodedValue);
 
-        String timestamp = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss.SSS").format(new Date());
+        String timestamp = mTimestampFormat.format(System.currentTimeMillis());
         mUiCallback.uiNewValueForCharacteristic(mBluetoothGatt,
                                                 mBluetoothDevice,
                                                 mBluetoothSelectedService,
         		                                ch,
-        		                                strValue,
-        		                                intValue,
+        		                                mDecodedValue.strValue,
+        		                                mDecodedValue.intValue,
         		                                rawValue,
         		                                timestamp);
     }
 
+    /* registry of value parsers - register decoders for vendor specific characteristics here */
+    CharacteristicDecoders getDecoders() { return mDecoders; }
+
     /* reads and return what what FORMAT is indicated by characteristic's properties
      * seems that value makes no sense in most cases */
     public int getValueFormat(BluetoothGattCharacteristic ch) {
@@ -353,19 +1006,26 @@ class BleWrapper {
     	return 0;
     }
 
-    /* set new value for particular characteristic */
-    public void writeDataToCharacteristic(final BluetoothGattCharacteristic ch, final byte[] dataToWrite) {
-    	if (mBluetoothAdapter == null || mBluetoothGatt == null || ch == null) return;
+    /* set new value for particular characteristic, returns null if not connected */
+    public GattFuture writeDataToCharacteristic(final BluetoothGattCharacteristic ch, final byte[] dataToWrite) {
+    	if (mBluetoothAdapter == null || mBluetoothGatt == null || ch == null) return null;
+
+    	// value is set locally and "committed" to the peripheral when the write gets its turn
+    	return enqueue(new GattOperation.WriteCharacteristic(ch, dataToWrite,
+    			BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, GattOperation.PRIORITY_NORMAL));
+    }
 
-    	// first set it locally....
-    	ch.setValue(dataToWrite);
-    	// ... and then "commit" changes to the peripheral
-    	mBluetoothGatt.writeCharacteristic(ch);
+    /* enables/disables notification for characteristic, returns future of the descriptor write
+     * (null if there is nothing to write) */
+    public GattFuture setNotificationForCharacteristic(BluetoothGattCharacteristic ch, boolean enabled) {
+        if (mBluetoothAdapter == null || mBluetoothGatt == null) return null;
+        GattOperation operation = enableNotification(ch, enabled);
+        return (operation != null) ? enqueue(operation) : null;
     }
 
-    /* enables/disables notification for characteristic */
-    public void setNotificationForCharacteristic(BluetoothGattCharacteristic ch, boolean enabled) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) return;
+    /* registers for notifications locally and returns operation writing client
+     * configuration descriptor of <ch>, null if it has none */
+    private GattOperation enableNotification(BluetoothGattCharacteristic ch, boolean enabled) {
 
         boolean success = mBluetoothGatt.setCharacteristicNotification(ch, enabled);
         if(!success) {
@@ -375,17 +1035,23 @@ class BleWrapper {
         // This is also sometimes required (e.g. for heart rate monitors) to enable notifications/indications
         // see: https://developer.bluetooth.org/gatt/descriptors/Pages/DescriptorViewer.aspx?u=org.bluetooth.descriptor.gatt.client_characteristic_configuration.xml
         BluetoothGattDescriptor descriptor = ch.getDescriptor(UUID.fromString("00002902-0000-1000-8000-00805f9b34fb"));
-        if(descriptor != null) {
-        	byte[] val = enabled ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
-	        descriptor.setValue(val);
-	        mBluetoothGatt.writeDescriptor(descriptor);
-        }
+        if(descriptor == null) return null;
+        // characteristics which can only indicate (like Service Changed) have to be subscribed for indications
+        boolean indicate = (ch.getProperties() & (BluetoothGattCharacteristic.PROPERTY_NOTIFY | BluetoothGattCharacteristic.PROPERTY_INDICATE))
+        		== BluetoothGattCharacteristic.PROPERTY_INDICATE;
+        byte[] val = !enabled ? BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE
+        		: indicate ? BluetoothGattDescriptor.ENABLE_INDICATION_VALUE : BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
+        return new GattOperation.WriteDescriptor(descriptor, val, GattOperation.PRIORITY_CONTROL);
     }
 
 
     private ScanCallback mDeviceFoundCallback = new ScanCallback() {
         public void onScanResult(int callbackType, ScanResult result) {
-            mUiCallback.uiDeviceFound(result.getDevice(), result.getRssi(), result.getScanRecord().getBytes());
+            ScanRecord record = result.getScanRecord();
+            byte[] bytes = (record != null) ? record.getBytes() : null;
+            mAdvertisement.parse(bytes);
+            if(!mScanFilter.matches(result.getRssi(), mAdvertisement)) return;
+            mUiCallback.uiDeviceFound(result.getDevice(), result.getRssi(), bytes);
         }
 
         /**
@@ -394,6 +1060,9 @@ class BleWrapper {
          * @param results List of scan results that are previously scanned.
          */
         public void onBatchScanResults(List<ScanResult> results) {
+            for(int i = 0; i < results.size(); i++) {
+                onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, results.get(i));
+            }
         }
 
         /**
@@ -406,41 +1075,23 @@ class BleWrapper {
 
     };
 
-    /* callbacks called for any action on particular Ble Device */
+    /* callbacks called for any action on particular Ble Device - they come on binder
+     * threads, so they only pass what happened to the event loop. The stack gives
+     * every notification its own value array, so the array can be passed as it is */
     private final BluetoothGattCallback mBleCallback = new BluetoothGattCallback() {
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-            	mConnected = true;
-            	mUiCallback.uiDeviceConnected(mBluetoothGatt, mBluetoothDevice);
-
-            	// now we can start talking with the device, e.g.
-            	mBluetoothGatt.readRemoteRssi();
-            	// response will be delivered to callback object!
-
-            	// in our case we would also like automatically to call for services discovery
-            	startServicesDiscovery();
+            mHandler.obtainMessage(MSG_CONNECTION_STATE, status, newState).sendToTarget();
+        }
 
-            	// and we also want to get RSSI value to be updated periodically
-            	startMonitoringRssiValue();
-            }
-            else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                mConnected = false;
-                mUiCallback.uiDeviceDisconnected(mBluetoothGatt, mBluetoothDevice);
-//                try {
-//                    mBluetoothGatt.close();
-//                } catch (Exception e) {
-//                    Log.d("DDDD", "close ignoring: " + e);
-//                }
-            }
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            mHandler.obtainMessage(MSG_MTU_CHANGED, mtu, status).sendToTarget();
         }
 
         @Override
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-            	// now, when services discovery is finished, we can call getServices() for Gatt
-            	getSupportedServices();
-            }
+            mHandler.obtainMessage(MSG_SERVICES_DISCOVERED, status, 0).sendToTarget();
         }
 
         @Override
@@ -448,60 +1099,293 @@ class BleWrapper {
                                          BluetoothGattCharacteristic characteristic,
                                          int status)
         {
-        	// we got response regarding our request to fetch characteristic value
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-            	// and it success, so we can get the value
-            	getCharacteristicValue(characteristic);
-            }
+            mHandler.obtainMessage(MSG_CHARACTERISTIC_READ, status, 0, characteristic).sendToTarget();
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            mHandler.obtainMessage(MSG_DESCRIPTOR_WRITE, status, 0, descriptor).sendToTarget();
         }
 
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt,
                                             BluetoothGattCharacteristic characteristic)
         {
-        	// characteristic's value was updated due to enabled notification, lets get this value
-        	// the value itself will be reported to the UI inside getCharacteristicValue
-        	getCharacteristicValue(characteristic);
-        	// also, notify UI that notification are enabled for particular characteristic
-        	mUiCallback.uiGotNotification(mBluetoothGatt, mBluetoothDevice, mBluetoothSelectedService, characteristic);
+        	byte[] value = characteristic.getValue();
+        	// raw listener is the fast path - it gets the value right on the binder thread
+        	mRawValueListener.onRawValue(characteristic, value, SystemClock.elapsedRealtimeNanos());
+
+        	if(characteristic == rx) {
+        		mHandler.obtainMessage(MSG_UART_DATA, value).sendToTarget();
+        	}
+        	// parsing and formatting only if someone will look at the result
+        	else if(mParseNotifications) {
+        		mHandler.obtainMessage(MSG_NOTIFICATION, characteristic).sendToTarget();
+        	}
         }
 
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-        	String deviceName = gatt.getDevice().getName();
-        	String serviceName = BleNamesResolver.resolveServiceName(characteristic.getService().getUuid().toString().toLowerCase(Locale.getDefault()));
-        	String charName = BleNamesResolver.resolveCharacteristicName(characteristic.getUuid().toString().toLowerCase(Locale.getDefault()));
-        	String description = "Device: " + deviceName + " Service: " + serviceName + " Characteristic: " + charName;
-
-        	// we got response regarding our request to write new value to the characteristic
-        	// let see if it failed or not
-        	if(status == BluetoothGatt.GATT_SUCCESS) {
-        		 mUiCallback.uiSuccessfulWrite(mBluetoothGatt, mBluetoothDevice, mBluetoothSelectedService, characteristic, description);
-        	}
-        	else {
-        		 mUiCallback.uiFailedWrite(mBluetoothGatt, mBluetoothDevice, mBluetoothSelectedService, characteristic, description + " STATUS = " + status);
-        	}
+            mHandler.obtainMessage(MSG_CHARACTERISTIC_WRITE, status, 0, characteristic).sendToTarget();
         };
 
         @Override
         public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
-        	if(status == BluetoothGatt.GATT_SUCCESS) {
-        		// we got new value of RSSI of the connection, pass it to the UI
-        		 mUiCallback.uiNewRssiAvailable(mBluetoothGatt, mBluetoothDevice, rssi);
-        	}
+            mHandler.obtainMessage(MSG_RSSI, rssi, status).sendToTarget();
         };
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            mHandler.obtainMessage(MSG_PHY_UPDATE, txPhy, rxPhy, status).sendToTarget();
+        }
+    };
+
+    /* messages handled by the event loop - GATT callbacks... */
+    private static final int MSG_CONNECTION_STATE     = 1;
+    private static final int MSG_MTU_CHANGED          = 2;
+    private static final int MSG_SERVICES_DISCOVERED  = 3;
+    private static final int MSG_CHARACTERISTIC_READ  = 4;
+    private static final int MSG_CHARACTERISTIC_WRITE = 5;
+    private static final int MSG_DESCRIPTOR_WRITE     = 6;
+    private static final int MSG_UART_DATA            = 7;
+    private static final int MSG_NOTIFICATION         = 8;
+    private static final int MSG_RSSI                 = 9;
+    private static final int MSG_PHY_UPDATE           = 11;
+    /* ...and calls from the UI */
+    private static final int MSG_CONNECT              = 20;
+    private static final int MSG_DISCONNECT           = 21;
+    private static final int MSG_CLOSE                = 22;
+    private static final int MSG_ENQUEUE              = 23;
+    private static final int MSG_PUMP_WRITE_QUEUE     = 24;
+    private static final int MSG_SELECT_SERVICE       = 25;
+    private static final int MSG_SET_RSSI_POLLING     = 26;
+    private static final int MSG_STOP_RSSI_POLLING    = 27;
+    private static final int MSG_SET_RECEIVE_LISTENER = 28;
+    private static final int MSG_SET_FRAMER           = 29;
+    private static final int MSG_SET_AUTO_BOOST       = 30;
+    private static final int MSG_SET_FLOW_CONTROL     = 31;
+    private static final int MSG_SET_RELIABLE_TRANSPORT = 32;
+
+    private final Handler.Callback mEventLoop = new Handler.Callback() {
+        @Override
+        public boolean handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_CONNECTION_STATE:     handleConnectionStateChange(msg.arg1, msg.arg2); break;
+                case MSG_MTU_CHANGED:          handleMtuChanged(msg.arg1, msg.arg2); break;
+                case MSG_SERVICES_DISCOVERED:  handleServicesDiscovered(msg.arg1); break;
+                case MSG_PHY_UPDATE:           handlePhyUpdate(msg.arg1, msg.arg2, (Integer) msg.obj); break;
+                case MSG_CHARACTERISTIC_READ:  handleCharacteristicRead((BluetoothGattCharacteristic) msg.obj, msg.arg1); break;
+                case MSG_CHARACTERISTIC_WRITE: handleCharacteristicWrite((BluetoothGattCharacteristic) msg.obj, msg.arg1); break;
+                case MSG_DESCRIPTOR_WRITE:
+                    mOperations.onCallback(GattOperation.CALLBACK_DESCRIPTOR_WRITE, msg.obj, msg.arg1, null);
+                    break;
+                case MSG_UART_DATA:            handleUartData((byte[]) msg.obj); break;
+                case MSG_NOTIFICATION:         handleNotification((BluetoothGattCharacteristic) msg.obj); break;
+                case MSG_RSSI:                 handleRssi(msg.arg1, msg.arg2); break;
+
+                case MSG_CONNECT:              handleConnect((String) msg.obj); break;
+                case MSG_DISCONNECT:           handleDisconnect(); break;
+                case MSG_CLOSE:                handleClose(); break;
+                case MSG_ENQUEUE:              mOperations.enqueue((GattOperation) msg.obj); break;
+                case MSG_PUMP_WRITE_QUEUE:     pumpWriteQueue(); break;
+                case MSG_SELECT_SERVICE:       handleSelectService((BluetoothGattService) msg.obj); break;
+                case MSG_SET_RSSI_POLLING:     handleSetRssiPolling((Boolean) msg.obj, msg.arg1, msg.arg2); break;
+                case MSG_STOP_RSSI_POLLING:    cancelRssiPolling(); break;
+                case MSG_SET_RECEIVE_LISTENER: mReceiver.setListener((UartReceiveListener) msg.obj); break;
+                case MSG_SET_FRAMER:           mReceiver.setFramer((UartFramer) msg.obj); break;
+                case MSG_SET_AUTO_BOOST:       handleSetAutoBoost((Boolean) msg.obj, msg.arg1); break;
+                case MSG_SET_FLOW_CONTROL:     handleSetFlowControl((Boolean) msg.obj); break;
+                case MSG_SET_RELIABLE_TRANSPORT: handleSetReliableTransport((Boolean) msg.obj); break;
+                default: return false;
+            }
+            return true;
+        }
+    };
+
+    private void handleConnectionStateChange(int status, int newState) {
+        mHandler.removeCallbacks(mConnectTimeout);
+        if (newState == BluetoothProfile.STATE_CONNECTED) {
+        	mConnected = true;
+        	mReconnectAttempt = 0;
+        	mUiCallback.uiDeviceConnected(mBluetoothGatt, mBluetoothDevice);
+
+        	// now we can start talking with the device - first try to get bigger MTU,
+        	// services discovery is queued behind it and starts once the MTU exchange is finished.
+        	// Discovery runs on every connection, see startServicesDiscovery() for what it costs
+        	mOperations.enqueue(new GattOperation.RequestMtu(PREFERRED_MTU));
+        	startServicesDiscovery();
+
+        	// and we also want to get RSSI value to be updated periodically
+        	startMonitoringRssiValue();
+        }
+        else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+            boolean wasConnected = mConnected;
+            mConnected = false;
+            cancelRssiPolling();
+            mHandler.removeCallbacks(mReliableTimer);
+            // connection parameters and PHY start from defaults on the next connection
+            stopHighThroughput();
+            mTxPhy = BluetoothDevice.PHY_LE_1M;
+            mRxPhy = BluetoothDevice.PHY_LE_1M;
+            mOperations.cancelAll(GattOperationQueue.STATUS_DISCONNECTED);
+            setMtu(UartWriteQueue.DEFAULT_CHUNK_SIZE + ATT_HEADER_SIZE);
+            if(wasConnected) mUiCallback.uiDeviceDisconnected(mBluetoothGatt, mBluetoothDevice);
+
+            // link was lost (or couldn't be made), not closed by us - try again;
+            // pending UART data stay queued and are sent once the link is back
+            if(!mDisconnectRequested && scheduleReconnect(status)) return;
+            dropPendingWrites();
+            if(!wasConnected) mUiCallback.uiDeviceDisconnected(mBluetoothGatt, mBluetoothDevice);
+        }
+    }
+
+    /* plans next connection attempt, returns false once the attempts ran out */
+    private boolean scheduleReconnect(int status) {
+        if(mBluetoothDevice == null) return false;
+        if(status == GATT_ERROR) {
+            // the stack's client got into a broken state (typically connection attempt timed
+            // out or too many clients are open) - retrying on it doesn't help, a new one is needed
+            closeGatt();
+        }
+
+        // background connection waits for the device on its own, attempts count only for direct
+        // ones - each of them is made on a new client and limited by CONNECT_TIMEOUT
+        boolean background = mAutoConnect && mBluetoothGatt != null;
+        if(!background && mReconnectAttempt >= mMaxReconnectAttempts) {
+            mReconnectAttempt = 0;
+            return false;
+        }
+
+        long delay;
+        if(background) {
+            // background connection has no timeout
+            delay = 0;
+            mBluetoothGatt.connect();
+        }
+        else {
+            delay = Math.min(mReconnectMaxDelay, mReconnectInitialDelay << Math.min(mReconnectAttempt, 30));
+            // jitter keeps links dropped together (e.g. by interference) from retrying in lockstep
+            delay = delay / 2 + (long) (mRandom.nextDouble() * (delay / 2 + 1));
+            mReconnectAttempt++;
+            mHandler.postDelayed(mReconnect, delay);
+        }
+        mUiCallback.uiReconnecting(mBluetoothGatt, mBluetoothDevice, mReconnectAttempt, delay);
+        return true;
+    }
+
+    private final Runnable mReconnect = new Runnable() {
+        @Override
+        public void run() {
+            if(mConnected || mBluetoothDevice == null) return;
+            openGatt(mBluetoothDevice.getAddress());
+        }
     };
 
-	private Activity mParent = null;
-	private boolean mConnected = false;
+    private void handleMtuChanged(int mtu, int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+        	// from now on UART data will be sliced to MTU - 3 bytes
+        	setMtu(mtu);
+        }
+        mOperations.onCallback(GattOperation.CALLBACK_MTU, null, status, null);
+    }
+
+    private void handleServicesDiscovered(int status) {
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+        	// now, when services discovery is finished, we can call getServices() for Gatt
+        	getSupportedServices();
+        }
+        mOperations.onCallback(GattOperation.CALLBACK_SERVICES, null, status, null);
+    }
+
+    private void handleCharacteristicRead(BluetoothGattCharacteristic characteristic, int status) {
+    	// we got response regarding our request to fetch characteristic value
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+        	// and it success, so we can get the value
+        	getCharacteristicValue(characteristic);
+        }
+        mOperations.onCallback(GattOperation.CALLBACK_CHARACTERISTIC_READ, characteristic, status,
+        		(status == BluetoothGatt.GATT_SUCCESS) ? characteristic.getValue() : null);
+    }
+
+    private void handleNotification(BluetoothGattCharacteristic characteristic) {
+    	// characteristic's value was updated due to enabled notification, lets get this value
+    	// the value itself will be reported to the UI inside getCharacteristicValue
+    	getCharacteristicValue(characteristic);
+    	// also, notify UI that notification are enabled for particular characteristic
+    	mUiCallback.uiGotNotification(mBluetoothGatt, mBluetoothDevice, mBluetoothSelectedService, characteristic);
+    }
+
+    private void handleCharacteristicWrite(BluetoothGattCharacteristic characteristic, int status) {
+    	if(characteristic == tx) {
+    		// UART data - the write operation continues with the transfer and reports its progress
+    		mOperations.onCallback(GattOperation.CALLBACK_CHARACTERISTIC_WRITE, characteristic, status, null);
+    		return;
+    	}
+
+    	String deviceName = mBluetoothDevice.getName();
+    	String serviceName = BleNamesResolver.resolveServiceName(characteristic.getService().getUuid());
+    	String charName = BleNamesResolver.resolveCharacteristicName(characteristic.getUuid());
+    	String description = "Device: " + deviceName + " Service: " + serviceName + " Characteristic: " + charName;
+
+    	// we got response regarding our request to write new value to the characteristic
+    	// let see if it failed or not
+    	if(status == BluetoothGatt.GATT_SUCCESS) {
+    		 mUiCallback.uiSuccessfulWrite(mBluetoothGatt, mBluetoothDevice, mBluetoothSelectedService, characteristic, description);
+    	}
+    	else {
+    		 mUiCallback.uiFailedWrite(mBluetoothGatt, mBluetoothDevice, mBluetoothSelectedService, characteristic, description + " STATUS = " + status);
+    	}
+    	mOperations.onCallback(GattOperation.CALLBACK_CHARACTERISTIC_WRITE, characteristic, status, null);
+    }
+
+    private void handleRssi(int rssi, int status) {
+    	if(status == BluetoothGatt.GATT_SUCCESS) {
+    		// we got new value of RSSI of the connection, pass it to the UI
+    		 mUiCallback.uiNewRssiAvailable(mBluetoothGatt, mBluetoothDevice, rssi);
+    	}
+    	mOperations.onCallback(GattOperation.CALLBACK_RSSI, null, status, null);
+    }
+
+	private Context mParent = null;
+	/* written only by the event loop, read also by the UI */
+	private volatile boolean mConnected = false;
+
+	private int mScanMode = ScanSettings.SCAN_MODE_LOW_POWER;
+	private long mScanReportDelay = 0;
+	private ScanFilterSettings mScanFilter = new ScanFilterSettings();
+	/* reused for every scan result, only touched from the scan callback */
+	private final AdvertisementParser mAdvertisement = new AdvertisementParser();
 
     private BluetoothManager mBluetoothManager = null;
     private BluetoothAdapter mBluetoothAdapter = null;
-    private BluetoothDevice  mBluetoothDevice = null;
-    private BluetoothGatt    mBluetoothGatt = null;
-    private BluetoothGattService mBluetoothSelectedService = null;
-    private List<BluetoothGattService> mBluetoothGattServices = null;
-
-    private Handler mTimerHandler = new Handler();
-    private boolean mTimerEnabled = false;
+    private volatile BluetoothDevice  mBluetoothDevice = null;
+    private volatile BluetoothGatt    mBluetoothGatt = null;
+    private volatile BluetoothGattService mBluetoothSelectedService = null;
+    private volatile List<BluetoothGattService> mBluetoothGattServices = null;
+
+    /* parsers of characteristic values, used only from the event loop */
+    private final CharacteristicDecoders mDecoders = new CharacteristicDecoders();
+    private final CharacteristicDecoder.Result mDecodedValue = new CharacteristicDecoder.Result();
+    private final SimpleDateFormat mTimestampFormat = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss.SSS", Locale.US);
+    /* status of failed connection attempt, the stack's client has to be re-created (GATT_ERROR) */
+    private static final int GATT_ERROR = 133;
+    /* how long a direct connection attempt may take */
+    static final long CONNECT_TIMEOUT = 10 * 1000;
+    /* reconnection policy, see setReconnectPolicy() */
+    static final int DEFAULT_MAX_RECONNECT_ATTEMPTS = 6;
+    static final long DEFAULT_RECONNECT_DELAY = 500;
+    static final long DEFAULT_MAX_RECONNECT_DELAY = 30 * 1000;
+    private volatile int mMaxReconnectAttempts = DEFAULT_MAX_RECONNECT_ATTEMPTS;
+    private volatile long mReconnectInitialDelay = DEFAULT_RECONNECT_DELAY;
+    private volatile long mReconnectMaxDelay = DEFAULT_MAX_RECONNECT_DELAY;
+    /* reconnection state, owned by the event loop */
+    private int mReconnectAttempt = 0;
+    private final Random mRandom = new Random();
+
+    /* RSSI polling state, owned by the event loop */
+    private boolean mRssiPollingEnabled = true;
+    private boolean mRssiMonitoring = false;
+    private int mRssiMinInterval = RSSI_UPDATE_TIME_INTERVAL;
+    private int mRssiMaxInterval = RSSI_MAX_UPDATE_TIME_INTERVAL;
+    private int mRssiInterval = RSSI_UPDATE_TIME_INTERVAL;
 }
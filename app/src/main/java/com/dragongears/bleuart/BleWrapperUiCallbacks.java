@@ -53,6 +53,27 @@ interface BleWrapperUiCallbacks {
 			                  final String description);
 	
 	void uiNewRssiAvailable(final BluetoothGatt gatt, final BluetoothDevice device, final int rssi);
+
+	void uiWriteProgress(final BluetoothGatt gatt,
+	                     final BluetoothDevice device,
+	                     final long bytesSent,
+	                     final long bytesTotal,
+	                     final int bytesPerSecond);
+
+	/* PHY of the connection changed (or the change requested by the wrapper failed);
+	 * <txPhy> and <rxPhy> are BluetoothDevice.PHY_LE_* values */
+	void uiPhyUpdated(final BluetoothGatt gatt,
+	                  final BluetoothDevice device,
+	                  final int txPhy,
+	                  final int rxPhy,
+	                  final int status);
+
+	/* link was lost or connection attempt failed, <attempt>-th attempt to reconnect
+	 * starts in <delay> ms (<gatt> is null if the client had to be closed) */
+	void uiReconnecting(final BluetoothGatt gatt,
+	                    final BluetoothDevice device,
+	                    final int attempt,
+	                    final long delay);
 	
 	/* define Null Adapter class for that interface */
 	class Null implements BleWrapperUiCallbacks {
@@ -88,6 +109,15 @@ interface BleWrapperUiCallbacks {
 		public void uiNewRssiAvailable(BluetoothGatt gatt, BluetoothDevice device,
 				int rssi) {}
 		@Override
+		public void uiWriteProgress(BluetoothGatt gatt, BluetoothDevice device,
+				long bytesSent, long bytesTotal, int bytesPerSecond) {}
+		@Override
+		public void uiPhyUpdated(BluetoothGatt gatt, BluetoothDevice device,
+				int txPhy, int rxPhy, int status) {}
+		@Override
+		public void uiReconnecting(BluetoothGatt gatt, BluetoothDevice device,
+				int attempt, long delay) {}
+		@Override
 		public void uiDeviceFound(BluetoothDevice device, int rssi, byte[] record) {}		
 	}
 }
@@ -0,0 +1,67 @@
+package com.dragongears.bleuart;
+
+/* fixed size circular byte buffer. Storage is allocated once in constructor,
+ * reading and writing only copy bytes in and out of it. Not thread safe */
+class ByteRingBuffer {
+
+    private final byte[] mBuffer;
+    private final int mMask;
+    /* read and write counters - they only grow, index into buffer is counter & mask */
+    private int mHead = 0;
+    private int mTail = 0;
+
+    /* creates buffer with capacity rounded up to the nearest power of two */
+    ByteRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mBuffer = new byte[size];
+        mMask = size - 1;
+    }
+
+    int capacity() { return mBuffer.length; }
+    int size()     { return mTail - mHead; }
+    int free()     { return mBuffer.length - size(); }
+    boolean isEmpty() { return mTail == mHead; }
+
+    /* appends as many bytes as fit, returns number of bytes written */
+    int write(byte[] src, int offset, int length) {
+        int count = Math.min(length, free());
+        int index = mTail & mMask;
+        int first = Math.min(count, mBuffer.length - index);
+        System.arraycopy(src, offset, mBuffer, index, first);
+        System.arraycopy(src, offset + first, mBuffer, 0, count - first);
+        mTail += count;
+        return count;
+    }
+
+    /* returns byte at <index> counting from the oldest buffered byte */
+    byte peek(int index) {
+        return mBuffer[(mHead + index) & mMask];
+    }
+
+    /* returns position of the first <value> at or after <from>, -1 if not buffered */
+    int indexOf(byte value, int from) {
+        int size = size();
+        for (int i = from; i < size; i++) {
+            if (mBuffer[(mHead + i) & mMask] == value) return i;
+        }
+        return -1;
+    }
+
+    /* moves <length> oldest bytes into <dst> */
+    void read(byte[] dst, int offset, int length) {
+        int index = mHead & mMask;
+        int first = Math.min(length, mBuffer.length - index);
+        System.arraycopy(mBuffer, index, dst, offset, first);
+        System.arraycopy(mBuffer, 0, dst, offset + first, length - first);
+        mHead += length;
+    }
+
+    /* drops <length> oldest bytes */
+    void skip(int length) {
+        mHead += Math.min(length, size());
+    }
+
+    void clear() {
+        mHead = mTail;
+    }
+}
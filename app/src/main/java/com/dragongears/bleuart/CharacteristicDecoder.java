@@ -0,0 +1,141 @@
+package com.dragongears.bleuart;
+
+import java.nio.charset.StandardCharsets;
+
+/* turns raw value of particular type of characteristic into meaningful
+ * integer and string, see CharacteristicDecoders for the registry */
+interface CharacteristicDecoder {
+
+	void decode(final byte[] rawValue, final Result out);
+
+	/* decoded value; reused between calls so nothing but the string is allocated */
+	class Result {
+		int intValue;
+		String strValue;
+
+		void clear() {
+			intValue = 0;
+			strValue = null;
+		}
+	}
+
+	/* value of unknown type - first four bytes as integer and every byte as character */
+	class Generic implements CharacteristicDecoder {
+		@Override
+		public void decode(byte[] rawValue, Result out) {
+			out.intValue = CharacteristicDecoders.uint(rawValue, 0, 4);
+			if (rawValue.length > 0) {
+				final StringBuilder stringBuilder = new StringBuilder(rawValue.length);
+				for (byte byteChar : rawValue) {
+					stringBuilder.append((char) (byteChar & 0xFF));
+				}
+				out.strValue = stringBuilder.toString();
+			}
+		}
+	}
+
+	/* string characteristics (e.g. manufacturer name, model number) - plain UTF-8 */
+	class Utf8String implements CharacteristicDecoder {
+		@Override
+		public void decode(byte[] rawValue, Result out) {
+			out.strValue = new String(rawValue, StandardCharsets.UTF_8);
+		}
+	}
+
+	/* org.bluetooth.characteristic.heart_rate_measurement - bit 0 of flags
+	 * tells if the value following the flags is uint8 or uint16 */
+	class HeartRateMeasurement implements CharacteristicDecoder {
+		@Override
+		public void decode(byte[] rawValue, Result out) {
+			if (rawValue.length < 2) return;
+			out.intValue = CharacteristicDecoders.uint(rawValue, 1, ((rawValue[0] & 0x01) != 0) ? 2 : 1);
+			out.strValue = out.intValue + " bpm"; // it is always in bpm units
+		}
+	}
+
+	/* org.bluetooth.characteristic.gap.appearance - uint16 category */
+	class Appearance implements CharacteristicDecoder {
+		@Override
+		public void decode(byte[] rawValue, Result out) {
+			if (rawValue.length < 2) return;
+			out.intValue = CharacteristicDecoders.uint(rawValue, 0, 2);
+			out.strValue = BleNamesResolver.resolveAppearance(out.intValue);
+		}
+	}
+
+	/* org.bluetooth.characteristic.body_sensor_location - uint8 enumeration */
+	class BodySensorLocation implements CharacteristicDecoder {
+		@Override
+		public void decode(byte[] rawValue, Result out) {
+			if (rawValue.length < 1) return;
+			out.intValue = rawValue[0] & 0xFF;
+			out.strValue = BleNamesResolver.resolveHeartRateSensorLocation(out.intValue);
+		}
+	}
+
+	/* org.bluetooth.characteristic.date_time - integer value is the year */
+	class DateTime implements CharacteristicDecoder {
+		@Override
+		public void decode(byte[] rawValue, Result out) {
+			if (rawValue.length < 7) return;
+			out.intValue = CharacteristicDecoders.uint(rawValue, 0, 2);
+			out.strValue = CharacteristicDecoders.dateTime(rawValue, 0);
+		}
+	}
+
+	/* org.bluetooth.characteristic.temperature_measurement - flags, FLOAT temperature;
+	 * bit 0 of flags means Fahrenheit. Integer value is the temperature rounded */
+	class TemperatureMeasurement implements CharacteristicDecoder {
+		@Override
+		public void decode(byte[] rawValue, Result out) {
+			if (rawValue.length < 5) return;
+			double temperature = CharacteristicDecoders.float11073(rawValue, 1);
+			out.intValue = (int) Math.round(temperature);
+			out.strValue = temperature + (((rawValue[0] & 0x01) != 0) ? " \u00B0F" : " \u00B0C");
+		}
+	}
+
+	/* org.bluetooth.characteristic.blood_pressure_measurement - flags, then systolic,
+	 * diastolic and mean arterial pressure as SFLOAT; bit 0 of flags means kPa.
+	 * Integer value is the systolic pressure rounded */
+	class BloodPressureMeasurement implements CharacteristicDecoder {
+		@Override
+		public void decode(byte[] rawValue, Result out) {
+			if (rawValue.length < 7) return;
+			double systolic = CharacteristicDecoders.sfloat(rawValue, 1);
+			double diastolic = CharacteristicDecoders.sfloat(rawValue, 3);
+			out.intValue = (int) Math.round(systolic);
+			out.strValue = systolic + "/" + diastolic + (((rawValue[0] & 0x01) != 0) ? " kPa" : " mmHg");
+		}
+	}
+
+	/* org.bluetooth.characteristic.temperature - sint16 in 0.01 degrees Celsius */
+	class Temperature implements CharacteristicDecoder {
+		@Override
+		public void decode(byte[] rawValue, Result out) {
+			if (rawValue.length < 2) return;
+			out.intValue = CharacteristicDecoders.sint(rawValue, 0, 2);
+			out.strValue = (out.intValue / 100.0) + " \u00B0C";
+		}
+	}
+
+	/* org.bluetooth.characteristic.humidity - uint16 in 0.01 percent */
+	class Humidity implements CharacteristicDecoder {
+		@Override
+		public void decode(byte[] rawValue, Result out) {
+			if (rawValue.length < 2) return;
+			out.intValue = CharacteristicDecoders.uint(rawValue, 0, 2);
+			out.strValue = (out.intValue / 100.0) + "% humidity";
+		}
+	}
+
+	/* org.bluetooth.characteristic.battery_level - uint8 percentage */
+	class BatteryLevel implements CharacteristicDecoder {
+		@Override
+		public void decode(byte[] rawValue, Result out) {
+			if (rawValue.length < 1) return;
+			out.intValue = rawValue[0] & 0xFF;
+			out.strValue = out.intValue + "% battery level";
+		}
+	}
+}
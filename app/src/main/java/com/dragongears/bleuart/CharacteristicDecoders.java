@@ -0,0 +1,131 @@
+package com.dragongears.bleuart;
+
+import java.util.Locale;
+import java.util.UUID;
+
+/* registry of characteristic decoders. Standard characteristics are keyed by
+ * their 16 bit assigned number, vendor specific ones by full UUID */
+class CharacteristicDecoders {
+
+    private final IntObjectMap<CharacteristicDecoder> mStandard = new IntObjectMap<>(32);
+    private final UuidObjectMap<CharacteristicDecoder> mVendor = new UuidObjectMap<>();
+    private CharacteristicDecoder mFallback = new CharacteristicDecoder.Generic();
+
+    /* creates registry with decoders for characteristics we know how to parse */
+    CharacteristicDecoders() {
+        CharacteristicDecoder string = new CharacteristicDecoder.Utf8String();
+        register(0x2A00, string); // device name
+        register(0x2A24, string); // model number string
+        register(0x2A25, string); // serial number string
+        register(0x2A26, string); // firmware revision string
+        register(0x2A27, string); // hardware revision string
+        register(0x2A28, string); // software revision string
+        register(0x2A29, string); // manufacturer name string
+
+        register(0x2A01, new CharacteristicDecoder.Appearance());
+        register(0x2A08, new CharacteristicDecoder.DateTime());
+        register(0x2A19, new CharacteristicDecoder.BatteryLevel());
+        register(0x2A1C, new CharacteristicDecoder.TemperatureMeasurement());
+        register(0x2A35, new CharacteristicDecoder.BloodPressureMeasurement());
+        register(0x2A37, new CharacteristicDecoder.HeartRateMeasurement());
+        register(0x2A38, new CharacteristicDecoder.BodySensorLocation());
+        register(0x2A6E, new CharacteristicDecoder.Temperature());
+        register(0x2A6F, new CharacteristicDecoder.Humidity());
+    }
+
+    /* decoder for characteristic with 16 bit UUID (Bluetooth base UUID) */
+    void register(int shortUuid, CharacteristicDecoder decoder) {
+        mStandard.put(shortUuid, decoder);
+    }
+
+    /* decoder for characteristic with any UUID, e.g. vendor specific one */
+    void register(UUID uuid, CharacteristicDecoder decoder) {
+        int shortUuid = BleDefinedUUIDs.toShortUuid(uuid);
+        if (shortUuid >= 0) {
+            register(shortUuid, decoder);
+        }
+        else {
+            mVendor.put(uuid, decoder);
+        }
+    }
+
+    /* decoder used for characteristics without registered one */
+    void setFallback(CharacteristicDecoder decoder) {
+        if (decoder != null) mFallback = decoder;
+    }
+
+    /* little endian unsigned integer from up to 4 bytes starting at <offset> */
+    static int uint(byte[] value, int offset, int length) {
+        int result = 0;
+        for (int i = 0; i < length && offset + i < value.length; i++) {
+            result |= (value[offset + i] & 0xFF) << (8 * i);
+        }
+        return result;
+    }
+
+    /* little endian two's complement integer from 1 to 4 bytes starting at <offset> */
+    static int sint(byte[] value, int offset, int length) {
+        int shift = 32 - 8 * Math.min(4, length);
+        return (uint(value, offset, length) << shift) >> shift;
+    }
+
+    /* IEEE 11073 16 bit SFLOAT - 4 bit exponent of 10 and 12 bit mantissa, both signed;
+     * NaN, NRes and the reserved value are returned as NaN */
+    static double sfloat(byte[] value, int offset) {
+        int raw = uint(value, offset, 2);
+        int mantissa = raw & 0x0FFF;
+        int exponent = sint(value, offset + 1, 1) >> 4;
+        if (exponent == 0) {
+            switch (mantissa) {
+                case 0x07FE: return Double.POSITIVE_INFINITY;
+                case 0x0802: return Double.NEGATIVE_INFINITY;
+                case 0x07FF: case 0x0800: case 0x0801: return Double.NaN;
+            }
+        }
+        if (mantissa >= 0x0800) mantissa -= 0x1000;
+        return scale(mantissa, exponent);
+    }
+
+    /* IEEE 11073 32 bit FLOAT - 8 bit exponent of 10 and 24 bit mantissa, both signed;
+     * NaN, NRes and the reserved value are returned as NaN */
+    static double float11073(byte[] value, int offset) {
+        int mantissa = uint(value, offset, 3);
+        int exponent = sint(value, offset + 3, 1);
+        if (exponent == 0) {
+            switch (mantissa) {
+                case 0x7FFFFE: return Double.POSITIVE_INFINITY;
+                case 0x800002: return Double.NEGATIVE_INFINITY;
+                case 0x7FFFFF: case 0x800000: case 0x800001: return Double.NaN;
+            }
+        }
+        if (mantissa >= 0x800000) mantissa -= 0x1000000;
+        return scale(mantissa, exponent);
+    }
+
+    /* <mantissa> * 10^<exponent>, dividing for negative exponents so that e.g. 3650e-2 is exactly 36.5 */
+    private static double scale(int mantissa, int exponent) {
+        return (exponent < 0) ? mantissa / Math.pow(10, -exponent) : mantissa * Math.pow(10, exponent);
+    }
+
+    /* org.bluetooth.characteristic.date_time (year uint16, month, day, hours, minutes,
+     * seconds) as "yyyy-mm-dd hh:mm:ss", null if the value is too short. Zero year,
+     * month or day mean unknown and are kept as they are */
+    static String dateTime(byte[] value, int offset) {
+        if (value.length < offset + 7) return null;
+        return String.format(Locale.US, "%04d-%02d-%02d %02d:%02d:%02d",
+                uint(value, offset, 2), value[offset + 2] & 0xFF, value[offset + 3] & 0xFF,
+                value[offset + 4] & 0xFF, value[offset + 5] & 0xFF, value[offset + 6] & 0xFF);
+    }
+
+    CharacteristicDecoder find(UUID uuid) {
+        CharacteristicDecoder decoder;
+        int shortUuid = BleDefinedUUIDs.toShortUuid(uuid);
+        if (shortUuid >= 0) {
+            decoder = mStandard.get(shortUuid);
+        }
+        else {
+            decoder = mVendor.get(uuid);
+        }
+        return (decoder != null) ? decoder : mFallback;
+    }
+}
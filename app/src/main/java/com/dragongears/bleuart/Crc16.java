@@ -0,0 +1,44 @@
+package com.dragongears.bleuart;
+
+/* CRC-16/CCITT-FALSE (polynomial 0x1021, initial value 0xFFFF, no reflection),
+ * the checksum most small MCU SDKs ship with. Table driven, the table is
+ * computed once when the class is loaded */
+final class Crc16 {
+
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = ((crc & 0x8000) != 0) ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    private Crc16() {}
+
+    static int compute(byte[] data, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) ^ TABLE[((crc >> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc;
+    }
+
+    /* appends CRC of <length> bytes at <offset> right behind them, little endian */
+    static void append(byte[] data, int offset, int length) {
+        int crc = compute(data, offset, length);
+        data[offset + length] = (byte) crc;
+        data[offset + length + 1] = (byte) (crc >> 8);
+    }
+
+    /* checks packet of <length> bytes at <offset> ending with CRC written by append() */
+    static boolean check(byte[] data, int offset, int length) {
+        if (length < 2) return false;
+        int crc = compute(data, offset, length - 2);
+        return (data[offset + length - 2] & 0xFF) == (crc & 0xFF)
+            && (data[offset + length - 1] & 0xFF) == (crc >> 8);
+    }
+}
@@ -1,50 +1,208 @@
 package com.dragongears.bleuart;
 
 import java.util.ArrayList;
+import java.util.Locale;
 
 import android.app.Activity;
 import android.bluetooth.BluetoothDevice;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
+import android.widget.ListView;
 import android.widget.TextView;
 
 class DeviceListAdapter extends BaseAdapter {
+
+	static final long DEFAULT_TIME_TO_LIVE = 60 * 1000;
+	static final int DEFAULT_MAX_DEVICES = 256;
+	/* device moves in front of another one only if it is at least this much (relatively) closer */
+	static final double PROXIMITY_HYSTERESIS = 0.25;
 	
-	private ArrayList<BluetoothDevice> mDevices;
-	private ArrayList<byte[]> mRecords;
-	private ArrayList<Integer> mRSSIs;
+	/* devices in the order they appear in the list */
+	private ArrayList<ScannedDevice> mDevices;
+	/* the same devices keyed by MAC address */
+	private LongObjectMap<ScannedDevice> mDevicesByAddress;
+	/* the same devices linked from the least to the most recently seen one -
+	 * stale devices are always at the oldest end, so aging never scans the table */
+	private ScannedDevice mOldest = null;
+	private ScannedDevice mNewest = null;
+	private long mTimeToLive = DEFAULT_TIME_TO_LIVE;
+	private int mMaxDevices = DEFAULT_MAX_DEVICES;
+	private int mEvictedCount = 0;
 	private LayoutInflater mInflater;
+	/* used for every advertisement added to the list */
+	private final AdvertisementParser mAdvertisement = new AdvertisementParser();
 	
 	DeviceListAdapter(Activity par) {
 		super();
 		mDevices  = new ArrayList<>();
-		mRecords = new ArrayList<>();
-		mRSSIs = new ArrayList<>();
+		mDevicesByAddress = new LongObjectMap<>(64);
 		mInflater = par.getLayoutInflater();
 	}
 	
-	void addDevice(BluetoothDevice device, int rssi, byte[] scanRecord) {
-		if(!mDevices.contains(device)) {
-			mDevices.add(device);
-			mRSSIs.add(rssi);
-			mRecords.add(scanRecord);
+	/* devices not seen for <millis> are removed by the next removeStaleDevices() */
+	void setTimeToLive(long millis) {
+		mTimeToLive = Math.max(0, millis);
+	}
+
+	/* when the table is full the least recently seen device makes room for the new one */
+	void setMaxDevices(int max) {
+		mMaxDevices = Math.max(1, max);
+		while(mDevicesByAddress.size() > mMaxDevices) remove(mOldest);
+		compactList();
+	}
+
+	/* adds new device or updates already known one in place,
+	 * returns true if the device was not in the list yet */
+	boolean addDevice(BluetoothDevice device, int rssi, byte[] scanRecord) {
+		long address = ScannedDevice.addressToLong(device.getAddress());
+		long now = SystemClock.elapsedRealtime();
+
+		ScannedDevice scanned = mDevicesByAddress.get(address);
+		boolean added = (scanned == null);
+		if(added) {
+			scanned = new ScannedDevice(device, address);
+			if(mDevicesByAddress.size() >= mMaxDevices) {
+				// the least recently seen device makes room and the new one takes over its row -
+				// nothing is shifted, so eviction costs the same however big the table is
+				ScannedDevice oldest = mOldest;
+				evict(oldest);
+				scanned.position = oldest.position;
+				mDevices.set(scanned.position, scanned);
+			}
+			else {
+				scanned.position = mDevices.size();
+				mDevices.add(scanned);
+			}
+			mDevicesByAddress.put(address, scanned);
+		}
+		else {
+			unlink(scanned);
 		}
+		mAdvertisement.parse(scanRecord);
+		scanned.update(rssi, scanRecord, mAdvertisement, now);
+		linkNewest(scanned);
+		return added;
 	}
 	
 	BluetoothDevice getDevice(int index) {
-		return mDevices.get(index);
+		return mDevices.get(index).device;
 	}
 	
 	int getRssi(int index) {
-		return mRSSIs.get(index);
+		return mDevices.get(index).rssi;
+	}
+
+	int getTxPower(int index) {
+		return mDevices.get(index).txPower;
+	}
+
+	/* orders the list from the nearest device, returns true if anything moved.
+	 * Insertion sort with hysteresis - devices at similar distance keep their
+	 * relative order, so the list doesn't jump around on every small RSSI change */
+	boolean sortByProximity() {
+		boolean moved = false;
+		for(int i = 1; i < mDevices.size(); i++) {
+			ScannedDevice scanned = mDevices.get(i);
+			double distance = proximityKey(scanned);
+			int j = i - 1;
+			while(j >= 0 && distance * (1 + PROXIMITY_HYSTERESIS) < proximityKey(mDevices.get(j))) {
+				setAt(j + 1, mDevices.get(j));
+				j--;
+			}
+			if(j + 1 != i) {
+				setAt(j + 1, scanned);
+				moved = true;
+			}
+		}
+		return moved;
+	}
+
+	/* devices with unknown distance go to the end */
+	private static double proximityKey(ScannedDevice scanned) {
+		double distance = scanned.distance();
+		return (distance < 0) ? Double.MAX_VALUE : distance;
 	}
 	
 	void clearList() {
 		mDevices.clear();
-		mRSSIs.clear();
-		mRecords.clear();
+		mDevicesByAddress.clear();
+		mOldest = null;
+		mNewest = null;
+	}
+
+	/* drops devices not seen for longer than time to live,
+	 * returns true if any was removed (and the list has to be redrawn) */
+	boolean removeStaleDevices(long now) {
+		long limit = now - mTimeToLive;
+		while(mOldest != null && mOldest.lastSeen < limit) remove(mOldest);
+		return compactList();
+	}
+
+	/* drops the device from the table in O(1) */
+	private void evict(ScannedDevice scanned) {
+		unlink(scanned);
+		mDevicesByAddress.remove(scanned.address);
+		scanned.evicted = true;
+	}
+
+	/* drops the device from the table, its row stays until the next compactList() */
+	private void remove(ScannedDevice scanned) {
+		evict(scanned);
+		mEvictedCount++;
+	}
+
+	private void setAt(int position, ScannedDevice scanned) {
+		mDevices.set(position, scanned);
+		scanned.position = position;
+	}
+
+	/* removes evicted devices from the displayed list in a single pass -
+	 * once per batch of expired devices, never per device */
+	private boolean compactList() {
+		if(mEvictedCount == 0) return false;
+		int kept = 0;
+		for(int i = 0; i < mDevices.size(); i++) {
+			ScannedDevice scanned = mDevices.get(i);
+			if(!scanned.evicted) setAt(kept++, scanned);
+		}
+		mDevices.subList(kept, mDevices.size()).clear();
+		mEvictedCount = 0;
+		return true;
+	}
+
+	private void linkNewest(ScannedDevice scanned) {
+		scanned.older = mNewest;
+		scanned.newer = null;
+		if(mNewest != null) mNewest.newer = scanned;
+		else mOldest = scanned;
+		mNewest = scanned;
+	}
+
+	private void unlink(ScannedDevice scanned) {
+		if(scanned.older != null) scanned.older.newer = scanned.newer;
+		else mOldest = scanned.newer;
+		if(scanned.newer != null) scanned.newer.older = scanned.older;
+		else mNewest = scanned.older;
+		scanned.older = null;
+		scanned.newer = null;
+	}
+
+	/* redraws only those visible rows whose device changed since they were drawn */
+	void refreshChangedRows(ListView list) {
+		int first = list.getFirstVisiblePosition();
+		int last = Math.min(list.getLastVisiblePosition(), mDevices.size() - 1);
+		for(int position = first; position <= last; position++) {
+			ScannedDevice scanned = mDevices.get(position);
+			if(!scanned.changed) continue;
+
+			View row = list.getChildAt(position - first);
+			if(row != null && row.getTag() instanceof FieldReferences) {
+				bindView((FieldReferences) row.getTag(), scanned);
+			}
+		}
 	}
 	
 	@Override
@@ -77,19 +235,25 @@ class DeviceListAdapter extends BaseAdapter {
             fields = (FieldReferences) convertView.getTag();
         }			
 		
-        // set proper values into the view
-        BluetoothDevice device = mDevices.get(position);
-        int rssi = mRSSIs.get(position);
-        String rssiString = (rssi == 0) ? "N/A" : rssi + " db";
-        String name = device.getName();
+        bindView(fields, mDevices.get(position));
+		return convertView;
+	}
+
+	/* set proper values into the view */
+	private void bindView(FieldReferences fields, ScannedDevice scanned) {
+        BluetoothDevice device = scanned.device;
+        int rssi = scanned.rssi;
+        String rssiString = (rssi == 0) ? "N/A"
+                : String.format(Locale.US, "%d db  ~%.1f m", rssi, scanned.distance());
+        String name = scanned.advertisedName;
+        if(name == null) name = device.getName();
         String address = device.getAddress();
         if(name == null || name.length() <= 0) name = "Unknown Device";
         
         fields.deviceName.setText(name);
         fields.deviceAddress.setText(address);
         fields.deviceRssi.setText(rssiString);
-
-		return convertView;
+        scanned.changed = false;
 	}
 	
 	private class FieldReferences {
@@ -0,0 +1,86 @@
+package com.dragongears.bleuart;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.bluetooth.BluetoothGatt;
+
+/* result of single GATT operation - its status (BluetoothGatt.GATT_SUCCESS,
+ * GATT error code or one of GattOperationQueue.STATUS_*) and value read, if any.
+ * Either wait for it with get() (never from the main or GATT callback thread),
+ * or set a listener which is called from the thread completing the operation */
+class GattFuture implements Future<Integer> {
+
+    interface Listener {
+        void onComplete(GattFuture future);
+    }
+
+    private boolean mDone = false;
+    private boolean mCancelled = false;
+    private int mStatus;
+    private byte[] mValue;
+    private Listener mListener = null;
+
+    /* called by the queue once the operation finished, returns false if it was already done */
+    boolean complete(int status, byte[] value) {
+        Listener listener;
+        synchronized (this) {
+            if (mDone) return false;
+            mDone = true;
+            mStatus = status;
+            mValue = value;
+            listener = mListener;
+            notifyAll();
+        }
+        if (listener != null) listener.onComplete(this);
+        return true;
+    }
+
+    /* <listener> is called right away if the operation is already done */
+    void setListener(Listener listener) {
+        synchronized (this) {
+            mListener = listener;
+            if (!mDone) return;
+        }
+        if (listener != null) listener.onComplete(this);
+    }
+
+    /* operation which didn't start yet is dropped from the queue, running one can't be stopped */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (this) {
+            if (mDone) return false;
+            mCancelled = true;
+        }
+        return complete(GattOperationQueue.STATUS_CANCELLED, null);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() { return mCancelled; }
+
+    @Override
+    public synchronized boolean isDone() { return mDone; }
+
+    synchronized boolean isSuccess() { return mDone && mStatus == BluetoothGatt.GATT_SUCCESS; }
+
+    /* value read by the operation, null for writes and failed operations */
+    synchronized byte[] getValue() { return mValue; }
+
+    @Override
+    public synchronized Integer get() throws InterruptedException {
+        while (!mDone) wait();
+        return mStatus;
+    }
+
+    @Override
+    public synchronized Integer get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!mDone) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) throw new TimeoutException();
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return mStatus;
+    }
+}
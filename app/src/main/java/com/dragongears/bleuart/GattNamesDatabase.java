@@ -0,0 +1,150 @@
+package com.dragongears.bleuart;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+/* Bluetooth SIG assigned numbers compiled by generateGattDatabase task (see
+ * app/build.gradle for the file layout). Nothing is read at class load time -
+ * the asset is memory mapped on the first lookup and names are looked up by
+ * binary search directly in the mapped file, no tables are built in memory.
+ * Each name is decoded on its first hit and kept, so redrawing lists doesn't
+ * allocate anything */
+class GattNamesDatabase {
+
+	static final int SERVICES        = 1;
+	static final int CHARACTERISTICS = 2;
+	static final int DESCRIPTORS     = 3;
+	static final int APPEARANCE      = 4;
+	static final int COMPANIES       = 5;
+
+	private static final String TAG = "GattNamesDatabase";
+	private static final String ASSET_NAME = "gatt_names.bin";
+	private static final int MAGIC = 0x47415454; // 'GATT'
+	private static final int HEADER_SIZE = 8;
+	private static final int DIRECTORY_ENTRY_SIZE = 12;
+	private static final int INDEX_ENTRY_SIZE = 8;
+
+	private static Context sContext = null;
+	private static ByteBuffer sData = null;
+	private static boolean sLoaded = false;
+	/* decoded names by directory position of their table and position in its index;
+	 * filled on first hit - racing threads may both decode a name, which is harmless */
+	private static String[][] sNames = null;
+
+	/* remember where to load the database from - call before first lookup, cheap to call repeatedly */
+	static synchronized void init(Context context) {
+		if(sContext != null || context == null) return;
+		sContext = (context.getApplicationContext() != null) ? context.getApplicationContext() : context;
+	}
+
+	/* returns name of <number> from <table>, null if it's not known */
+	static String lookup(int table, int number) {
+		ByteBuffer data = getData();
+		if(data == null) return null;
+
+		int tables = data.getShort(6) & 0xFFFF;
+		for(int t = 0; t < tables; t++) {
+			int entry = HEADER_SIZE + t * DIRECTORY_ENTRY_SIZE;
+			if(data.getInt(entry) != table) continue;
+
+			int count = data.getInt(entry + 4);
+			int index = data.getInt(entry + 8);
+			int low = 0, high = count - 1;
+			while(low <= high) {
+				int mid = (low + high) >>> 1;
+				int key = data.getInt(index + mid * INDEX_ENTRY_SIZE);
+				if(key < number) low = mid + 1;
+				else if(key > number) high = mid - 1;
+				else return getName(data, t, count, mid, data.getInt(index + mid * INDEX_ENTRY_SIZE + 4));
+			}
+			return null;
+		}
+		return null;
+	}
+
+	private static String getName(ByteBuffer data, int table, int count, int position, int offset) {
+		String[] names = sNames[table];
+		if(names == null) {
+			names = new String[count];
+			sNames[table] = names;
+		}
+		String name = names[position];
+		if(name == null) {
+			name = readName(data, offset);
+			names[position] = name;
+		}
+		return name;
+	}
+
+	private static String readName(ByteBuffer data, int offset) {
+		int length = data.getShort(offset) & 0xFFFF;
+		byte[] bytes = new byte[length];
+		for(int i = 0; i < length; i++) bytes[i] = data.get(offset + 2 + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static synchronized ByteBuffer getData() {
+		if(!sLoaded && sContext != null) {
+			sLoaded = true;
+			sData = load(sContext);
+			if(sData != null) sNames = new String[sData.getShort(6) & 0xFFFF][];
+		}
+		return sData;
+	}
+
+	private static ByteBuffer load(Context context) {
+		ByteBuffer data = null;
+		try {
+			data = map(context);
+		} catch (IOException e) {
+			// asset got compressed - it can't be mapped, so read it whole
+			try {
+				data = read(context);
+			} catch (IOException e2) {
+				Log.w(TAG, "Can't load " + ASSET_NAME, e2);
+				return null;
+			}
+		}
+		if(data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+			Log.w(TAG, ASSET_NAME + " is corrupted");
+			return null;
+		}
+		return data;
+	}
+
+	private static ByteBuffer map(Context context) throws IOException {
+		AssetFileDescriptor fd = context.getAssets().openFd(ASSET_NAME);
+		try {
+			FileInputStream stream = fd.createInputStream();
+			try {
+				return stream.getChannel().map(FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength());
+			} finally {
+				stream.close();
+			}
+		} finally {
+			fd.close();
+		}
+	}
+
+	private static ByteBuffer read(Context context) throws IOException {
+		InputStream stream = context.getAssets().open(ASSET_NAME);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int count;
+			while((count = stream.read(buffer)) > 0) out.write(buffer, 0, count);
+			return ByteBuffer.wrap(out.toByteArray());
+		} finally {
+			stream.close();
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package com.dragongears.bleuart;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+
+/* single request to the remote device, run by GattOperationQueue when
+ * no other request is outstanding. Subclasses start the request and tell
+ * which GATT callback is the answer to it */
+abstract class GattOperation {
+
+    /* link setup (MTU, discovery, notifications), UART data, requests of the UI, housekeeping (RSSI) */
+    static final int PRIORITY_CONTROL = 0;
+    static final int PRIORITY_DATA    = 1;
+    static final int PRIORITY_NORMAL  = 2;
+    static final int PRIORITY_LOW     = 3;
+    static final int PRIORITY_COUNT   = 4;
+
+    /* GATT callbacks which can finish an operation */
+    static final int CALLBACK_CHARACTERISTIC_READ  = 1;
+    static final int CALLBACK_CHARACTERISTIC_WRITE = 2;
+    static final int CALLBACK_DESCRIPTOR_READ      = 3;
+    static final int CALLBACK_DESCRIPTOR_WRITE     = 4;
+    static final int CALLBACK_RSSI                 = 5;
+    static final int CALLBACK_SERVICES             = 6;
+    static final int CALLBACK_MTU                  = 7;
+
+    static final long DEFAULT_TIMEOUT = 5 * 1000;
+    /* how many times operation refused by busy stack or timed out is started again */
+    static final int DEFAULT_MAX_RETRIES = 3;
+
+    final int priority;
+    /* null for operations nobody waits for */
+    final GattFuture future;
+    long timeout = DEFAULT_TIMEOUT;
+    int maxRetries = DEFAULT_MAX_RETRIES;
+
+    /* managed by the queue */
+    int attempts = 0;
+    boolean queued = false;
+
+    GattOperation(int priority, GattFuture future) {
+        this.priority = priority;
+        this.future = future;
+    }
+
+    /* starts the request, returns false if the stack refused it */
+    abstract boolean execute(BluetoothGatt gatt);
+
+    /* true if callback of <type> about <target> (characteristic or descriptor) answers this operation */
+    abstract boolean isAnsweredBy(int type, Object target);
+
+    /* operation which is no longer needed is dropped by the queue without being started */
+    boolean isObsolete() {
+        return future != null && future.isCancelled();
+    }
+
+    /* called once the operation finished - successfully, with error or STATUS_* of the queue */
+    void onComplete(int status, byte[] value) {
+        if (future != null) future.complete(status, value);
+    }
+
+    static class ReadCharacteristic extends GattOperation {
+        private final BluetoothGattCharacteristic mCharacteristic;
+
+        ReadCharacteristic(BluetoothGattCharacteristic characteristic, int priority) {
+            super(priority, new GattFuture());
+            mCharacteristic = characteristic;
+        }
+
+        @Override
+        boolean execute(BluetoothGatt gatt) {
+            return gatt.readCharacteristic(mCharacteristic);
+        }
+
+        @Override
+        boolean isAnsweredBy(int type, Object target) {
+            return type == CALLBACK_CHARACTERISTIC_READ && target == mCharacteristic;
+        }
+    }
+
+    /* value is set right before writing, so queued writes of one characteristic don't overwrite each other */
+    static class WriteCharacteristic extends GattOperation {
+        private final BluetoothGattCharacteristic mCharacteristic;
+        private final byte[] mValue;
+        private final int mWriteType;
+
+        WriteCharacteristic(BluetoothGattCharacteristic characteristic, byte[] value, int writeType, int priority) {
+            super(priority, new GattFuture());
+            mCharacteristic = characteristic;
+            mValue = value;
+            mWriteType = writeType;
+        }
+
+        @Override
+        boolean execute(BluetoothGatt gatt) {
+            mCharacteristic.setWriteType(mWriteType);
+            mCharacteristic.setValue(mValue);
+            return gatt.writeCharacteristic(mCharacteristic);
+        }
+
+        @Override
+        boolean isAnsweredBy(int type, Object target) {
+            return type == CALLBACK_CHARACTERISTIC_WRITE && target == mCharacteristic;
+        }
+    }
+
+    static class WriteDescriptor extends GattOperation {
+        private final BluetoothGattDescriptor mDescriptor;
+        private final byte[] mValue;
+
+        WriteDescriptor(BluetoothGattDescriptor descriptor, byte[] value, int priority) {
+            super(priority, new GattFuture());
+            mDescriptor = descriptor;
+            mValue = value;
+        }
+
+        @Override
+        boolean execute(BluetoothGatt gatt) {
+            mDescriptor.setValue(mValue);
+            return gatt.writeDescriptor(mDescriptor);
+        }
+
+        @Override
+        boolean isAnsweredBy(int type, Object target) {
+            return type == CALLBACK_DESCRIPTOR_WRITE && target == mDescriptor;
+        }
+    }
+
+    static class DiscoverServices extends GattOperation {
+        /* discovery of big database over slow connection takes long */
+        static final long TIMEOUT = 30 * 1000;
+
+        DiscoverServices() {
+            super(PRIORITY_CONTROL, new GattFuture());
+            timeout = TIMEOUT;
+        }
+
+        @Override
+        boolean execute(BluetoothGatt gatt) {
+            return gatt.discoverServices();
+        }
+
+        @Override
+        boolean isAnsweredBy(int type, Object target) {
+            return type == CALLBACK_SERVICES;
+        }
+    }
+
+    static class RequestMtu extends GattOperation {
+        private final int mMtu;
+
+        RequestMtu(int mtu) {
+            super(PRIORITY_CONTROL, new GattFuture());
+            mMtu = mtu;
+            // older stacks refuse MTU exchange for good, no point in asking again
+            maxRetries = 0;
+        }
+
+        @Override
+        boolean execute(BluetoothGatt gatt) {
+            return gatt.requestMtu(mMtu);
+        }
+
+        @Override
+        boolean isAnsweredBy(int type, Object target) {
+            return type == CALLBACK_MTU;
+        }
+    }
+
+    /* reused for every RSSI poll, nobody waits for it - the value goes to the UI callback */
+    static class ReadRssi extends GattOperation {
+
+        ReadRssi() {
+            super(PRIORITY_LOW, null);
+            maxRetries = 0;
+        }
+
+        @Override
+        boolean execute(BluetoothGatt gatt) {
+            return gatt.readRemoteRssi();
+        }
+
+        @Override
+        boolean isAnsweredBy(int type, Object target) {
+            return type == CALLBACK_RSSI;
+        }
+    }
+}
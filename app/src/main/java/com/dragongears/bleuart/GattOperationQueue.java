@@ -0,0 +1,233 @@
+package com.dragongears.bleuart;
+
+import java.util.ArrayDeque;
+
+import android.bluetooth.BluetoothGatt;
+import android.os.Handler;
+
+/* BluetoothGatt handles one request at a time and refuses (or silently
+ * loses) anything issued meanwhile. All requests go through this queue
+ * instead: it starts the next one only after the previous one's callback
+ * arrived, timed out or failed. Higher priority operations go first,
+ * operations of the same priority keep their order.
+ * The stack stays busy with an operation which timed out until its callback
+ * comes after all, so the queue waits for that late callback (dropping it)
+ * before it starts the operation again or runs anything else; if it doesn't
+ * come either, the operation fails with STATUS_TIMEOUT.
+ * Not thread safe - it is used only from the thread of its Handler */
+class GattOperationQueue {
+
+    /* statuses reported by the queue itself (GATT statuses are never negative) */
+    static final int STATUS_TIMEOUT       = -1;
+    static final int STATUS_REFUSED       = -2;
+    static final int STATUS_CANCELLED     = -3;
+    static final int STATUS_DISCONNECTED  = -4;
+
+    /* defines (in milliseconds) how long to wait before starting again operation refused by busy stack */
+    private static final long RETRY_INTERVAL = 10;
+
+    private final Handler mHandler;
+    /* shares the controller with queues of other links, null for a single link */
+    private final GattScheduler mScheduler;
+    private boolean mHasPermit = false;
+    private final ArrayDeque<GattOperation>[] mQueues;
+    private BluetoothGatt mGatt = null;
+    /* operation waiting for its callback, only one at a time */
+    private GattOperation mCurrent = null;
+    private boolean mRetryPending = false;
+    /* operation which timed out - the first callback answering it is its late one and is dropped */
+    private GattOperation mTimedOut = null;
+    /* nothing is started until the late callback arrives or mLateTimeout fires */
+    private boolean mLatePending = false;
+
+    GattOperationQueue(Handler handler) {
+        this(handler, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    GattOperationQueue(Handler handler, GattScheduler scheduler) {
+        mHandler = handler;
+        mScheduler = scheduler;
+        mQueues = new ArrayDeque[GattOperation.PRIORITY_COUNT];
+        for (int i = 0; i < mQueues.length; i++) mQueues[i] = new ArrayDeque<>();
+    }
+
+    /* connection the operations are run on, null when there is none */
+    void setGatt(BluetoothGatt gatt) {
+        mGatt = gatt;
+    }
+
+    /* adds operation to the end of its priority queue and returns its future
+     * (null for operations without one). Operation already queued is not added again */
+    GattFuture enqueue(GattOperation operation) {
+        if (!operation.queued) {
+            operation.queued = true;
+            operation.attempts = 0;
+            mQueues[operation.priority].addLast(operation);
+            next();
+        }
+        return operation.future;
+    }
+
+    boolean isIdle() {
+        if (mCurrent != null || mLatePending) return false;
+        for (ArrayDeque<GattOperation> queue : mQueues) {
+            if (!queue.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    /* passes GATT callback to the running operation; callbacks nobody waits
+     * for (e.g. late answer to an operation which already timed out) are ignored */
+    void onCallback(int type, Object target, int status, byte[] value) {
+        if (mTimedOut != null && mTimedOut.isAnsweredBy(type, target)) {
+            // answer to the attempt which timed out, not to anything started since
+            GattOperation operation = mTimedOut;
+            mTimedOut = null;
+            if (mLatePending) {
+                // the stack is free again, the operation can be started anew
+                mLatePending = false;
+                mHandler.removeCallbacks(mLateTimeout);
+                if (operation.attempts <= operation.maxRetries) mQueues[operation.priority].addFirst(operation);
+                else finish(operation, STATUS_TIMEOUT, null);
+                next();
+            }
+            return;
+        }
+        if (mCurrent == null || !mCurrent.isAnsweredBy(type, target)) return;
+        GattOperation operation = mCurrent;
+        mCurrent = null;
+        mHandler.removeCallbacks(mTimeout);
+        releasePermit();
+        finish(operation, status, value);
+        next();
+    }
+
+    /* scheduler gave us the slot we were waiting for */
+    void resumeGranted() {
+        mHasPermit = true;
+        next();
+    }
+
+    /* fails running and all queued operations with <status>, e.g. when the link is lost */
+    void cancelAll(int status) {
+        mHandler.removeCallbacks(mTimeout);
+        mHandler.removeCallbacks(mRetry);
+        mHandler.removeCallbacks(mLateTimeout);
+        mRetryPending = false;
+        // new link (or none) - nothing late comes anymore
+        GattOperation timedOut = mLatePending ? mTimedOut : null;
+        mTimedOut = null;
+        mLatePending = false;
+
+        GattOperation current = mCurrent;
+        mCurrent = null;
+        if (mScheduler != null) mScheduler.remove(this);
+        releasePermit();
+        if (current != null) finish(current, status, null);
+        if (timedOut != null) finish(timedOut, status, null);
+        // completion of cancelled operation may queue another one, fail those too
+        GattOperation operation;
+        while ((operation = poll()) != null) finish(operation, status, null);
+    }
+
+    /* starts operations until one of them is running (or waiting for retry) */
+    private void next() {
+        while (mCurrent == null && !mRetryPending && !mLatePending) {
+            GattOperation operation = poll();
+            if (operation == null) {
+                releasePermit();
+                return;
+            }
+            if (!acquirePermit()) {
+                // other links go first, scheduler calls resumeGranted() when it's our turn
+                mQueues[operation.priority].addFirst(operation);
+                return;
+            }
+
+            if (mGatt == null) {
+                finish(operation, STATUS_DISCONNECTED, null);
+                continue;
+            }
+
+            operation.attempts++;
+            if (operation.execute(mGatt)) {
+                mCurrent = operation;
+                mHandler.postDelayed(mTimeout, operation.timeout);
+            }
+            else if (operation.attempts <= operation.maxRetries) {
+                // stack is busy (e.g. with request of other app), try the same operation a bit later
+                mQueues[operation.priority].addFirst(operation);
+                mRetryPending = true;
+                mHandler.postDelayed(mRetry, RETRY_INTERVAL);
+            }
+            else {
+                finish(operation, STATUS_REFUSED, null);
+            }
+        }
+    }
+
+    private boolean acquirePermit() {
+        if (mHasPermit) return true;
+        mHasPermit = (mScheduler == null) || mScheduler.acquire(this);
+        return mHasPermit;
+    }
+
+    private void releasePermit() {
+        if (!mHasPermit) return;
+        mHasPermit = false;
+        if (mScheduler != null) mScheduler.release(this);
+    }
+
+    /* removes the most important operation, obsolete ones are dropped on the way */
+    private GattOperation poll() {
+        for (ArrayDeque<GattOperation> queue : mQueues) {
+            GattOperation operation;
+            while ((operation = queue.pollFirst()) != null) {
+                if (!operation.isObsolete()) return operation;
+                operation.queued = false;
+            }
+        }
+        return null;
+    }
+
+    private void finish(GattOperation operation, int status, byte[] value) {
+        operation.queued = false;
+        operation.onComplete(status, value);
+    }
+
+    private final Runnable mRetry = new Runnable() {
+        @Override
+        public void run() {
+            mRetryPending = false;
+            next();
+        }
+    };
+
+    /* the running operation got no answer in time - wait for the late one, the stack
+     * refuses anything else until it comes */
+    private final Runnable mTimeout = new Runnable() {
+        @Override
+        public void run() {
+            GattOperation operation = mCurrent;
+            if (operation == null) return;
+            mCurrent = null;
+            releasePermit();
+            mTimedOut = operation;
+            mLatePending = true;
+            mHandler.postDelayed(mLateTimeout, operation.timeout);
+        }
+    };
+
+    /* no late callback either - starting the operation again would just be refused, give up.
+     * mTimedOut stays set, so the callback is still dropped if it comes after all */
+    private final Runnable mLateTimeout = new Runnable() {
+        @Override
+        public void run() {
+            if (!mLatePending) return;
+            mLatePending = false;
+            finish(mTimedOut, STATUS_TIMEOUT, null);
+            next();
+        }
+    };
+}
@@ -0,0 +1,65 @@
+package com.dragongears.bleuart;
+
+import java.util.ArrayDeque;
+
+/* shares the Bluetooth controller between connections. Every link runs its
+ * own GattOperationQueue (one request at a time per BluetoothGatt), the
+ * scheduler additionally limits how many links may have a request running
+ * at once and hands the free slots out in round robin order, so one link
+ * sending bulk data can't starve the others.
+ * Not thread safe - all queues using it have to run on the same thread */
+class GattScheduler {
+
+    /* one running request per link is what the stack allows anyway, so by
+     * default the limit only matters when many links are busy at once */
+    static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    private final ArrayDeque<GattOperationQueue> mWaiting = new ArrayDeque<>();
+    private int mMaxInFlight;
+    private int mInFlight = 0;
+
+    GattScheduler() {
+        this(DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    GattScheduler(int maxInFlight) {
+        mMaxInFlight = Math.max(1, maxInFlight);
+    }
+
+    void setMaxInFlight(int maxInFlight) {
+        mMaxInFlight = Math.max(1, maxInFlight);
+        grant();
+    }
+
+    int getInFlight() { return mInFlight; }
+
+    /* <queue> wants to start a request; returns true if it may do so right away,
+     * otherwise the queue waits in line and gets resumeGranted() once it's its turn */
+    boolean acquire(GattOperationQueue queue) {
+        if (mInFlight < mMaxInFlight && mWaiting.isEmpty()) {
+            mInFlight++;
+            return true;
+        }
+        if (!mWaiting.contains(queue)) mWaiting.addLast(queue);
+        return false;
+    }
+
+    /* <queue> finished its request; links waiting in line go first, so the
+     * releasing link has to line up behind them for its next request */
+    void release(GattOperationQueue queue) {
+        if (mInFlight > 0) mInFlight--;
+        grant();
+    }
+
+    /* <queue> is going away (link closed) */
+    void remove(GattOperationQueue queue) {
+        mWaiting.remove(queue);
+    }
+
+    private void grant() {
+        while (mInFlight < mMaxInFlight && !mWaiting.isEmpty()) {
+            mInFlight++;
+            mWaiting.pollFirst().resumeGranted();
+        }
+    }
+}
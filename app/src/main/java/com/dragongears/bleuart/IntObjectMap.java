@@ -0,0 +1,37 @@
+package com.dragongears.bleuart;
+
+/* open addressing hash map with primitive int keys - lookups don't box
+ * the key and don't allocate. Plain Java, so it is usable outside Android too */
+class IntObjectMap<V> extends OpenHashMap<V> {
+
+    IntObjectMap() {
+        this(16);
+    }
+
+    IntObjectMap(int expectedSize) {
+        super(expectedSize, false);
+    }
+
+    V get(int key) {
+        return find(0, key);
+    }
+
+    V get(int key, V defaultValue) {
+        V value = get(key);
+        return (value != null) ? value : defaultValue;
+    }
+
+    boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /* stores <value> (which must not be null) under <key>, replacing previous one */
+    void put(int key, V value) {
+        store(0, key, value);
+    }
+
+    /* removes value stored under <key> and returns it, null if there was none */
+    V remove(int key) {
+        return delete(0, key);
+    }
+}
@@ -0,0 +1,28 @@
+package com.dragongears.bleuart;
+
+/* open addressing hash map with primitive long keys (e.g. MAC addresses);
+ * get/put/remove neither box the key nor allocate */
+class LongObjectMap<V> extends OpenHashMap<V> {
+
+    LongObjectMap() {
+        this(16);
+    }
+
+    LongObjectMap(int expectedSize) {
+        super(expectedSize, false);
+    }
+
+    V get(long key) {
+        return find(0, key);
+    }
+
+    /* stores <value> (which must not be null) under <key>, replacing previous one */
+    void put(long key, V value) {
+        store(0, key, value);
+    }
+
+    /* removes value stored under <key> and returns it, null if there was none */
+    V remove(long key) {
+        return delete(0, key);
+    }
+}
@@ -0,0 +1,125 @@
+package com.dragongears.bleuart;
+
+import java.util.Arrays;
+
+/* open addressing hash map (linear probing) with primitive keys of up to 128 bits,
+ * held as two longs - the common part of IntObjectMap, LongObjectMap and
+ * UuidObjectMap. Keys narrower than 64 bits live in the low half only and the
+ * high half isn't even allocated. get/put/remove neither box the key nor allocate.
+ * Plain Java, so it is usable outside Android too */
+class OpenHashMap<V> {
+
+    private long[] mHigh;
+    private long[] mLow;
+    private Object[] mValues;
+    private int mSize = 0;
+
+    /* <wideKeys> - keys use the high half too */
+    OpenHashMap(int expectedSize, boolean wideKeys) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+        mHigh = wideKeys ? new long[capacity] : null;
+        mLow = new long[capacity];
+        mValues = new Object[capacity];
+    }
+
+    int size() { return mSize; }
+
+    @SuppressWarnings("unchecked")
+    final V find(long high, long low) {
+        int mask = mValues.length - 1;
+        for (int i = hash(high, low) & mask; mValues[i] != null; i = (i + 1) & mask) {
+            if (keyAt(i, high, low)) return (V) mValues[i];
+        }
+        return null;
+    }
+
+    /* stores <value> (which must not be null) under the key, replacing previous one */
+    final void store(long high, long low, V value) {
+        if (value == null) throw new IllegalArgumentException("null values are not supported");
+        if ((mSize + 1) * 2 > mValues.length) grow();
+
+        int mask = mValues.length - 1;
+        int i = hash(high, low) & mask;
+        while (mValues[i] != null) {
+            if (keyAt(i, high, low)) {
+                mValues[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        setKey(i, high, low);
+        mValues[i] = value;
+        mSize++;
+    }
+
+    /* removes value stored under the key and returns it, null if there was none */
+    @SuppressWarnings("unchecked")
+    final V delete(long high, long low) {
+        int mask = mValues.length - 1;
+        int i = hash(high, low) & mask;
+        while (mValues[i] != null && !keyAt(i, high, low)) i = (i + 1) & mask;
+        if (mValues[i] == null) return null;
+
+        V removed = (V) mValues[i];
+        mValues[i] = null;
+        mSize--;
+
+        // shift following entries of the probe sequence back, so lookups don't stop at the hole
+        int hole = i;
+        for (int j = (i + 1) & mask; mValues[j] != null; j = (j + 1) & mask) {
+            int home = hash(highAt(j), mLow[j]) & mask;
+            // move entry j into the hole unless its home slot lies cyclically in (hole, j]
+            boolean inRange = (hole <= j) ? (hole < home && home <= j) : (hole < home || home <= j);
+            if (!inRange) {
+                setKey(hole, highAt(j), mLow[j]);
+                mValues[hole] = mValues[j];
+                mValues[j] = null;
+                hole = j;
+            }
+        }
+        return removed;
+    }
+
+    void clear() {
+        Arrays.fill(mValues, null);
+        mSize = 0;
+    }
+
+    private boolean keyAt(int i, long high, long low) {
+        return mLow[i] == low && (mHigh == null || mHigh[i] == high);
+    }
+
+    private long highAt(int i) {
+        return (mHigh != null) ? mHigh[i] : 0;
+    }
+
+    private void setKey(int i, long high, long low) {
+        if (mHigh != null) mHigh[i] = high;
+        mLow[i] = low;
+    }
+
+    private void grow() {
+        long[] highs = mHigh;
+        long[] lows = mLow;
+        Object[] values = mValues;
+        mHigh = (highs != null) ? new long[highs.length * 2] : null;
+        mLow = new long[lows.length * 2];
+        mValues = new Object[values.length * 2];
+
+        int mask = mValues.length - 1;
+        for (int j = 0; j < values.length; j++) {
+            if (values[j] == null) continue;
+            long high = (highs != null) ? highs[j] : 0;
+            int i = hash(high, lows[j]) & mask;
+            while (mValues[i] != null) i = (i + 1) & mask;
+            setKey(i, high, lows[j]);
+            mValues[i] = values[j];
+        }
+    }
+
+    /* spreads bits of small sequential keys (16 bit UUIDs, MAC addresses of one vendor) over the table */
+    private static int hash(long high, long low) {
+        long h = (high ^ (low * 0x9E3779B97F4A7C15L)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -1,12 +1,18 @@
 package com.dragongears.bleuart;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 import android.app.AlertDialog;
+import android.content.ComponentName;
 import android.content.DialogInterface;
+import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.IBinder;
+import android.os.SystemClock;
 import android.app.Activity;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
@@ -14,6 +20,8 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
 import android.content.Intent;
 import android.preference.PreferenceManager;
+import android.text.Layout;
+import android.text.method.ScrollingMovementMethod;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -27,10 +35,14 @@ import android.widget.Toast;
 
 import org.json.JSONArray;
 
-public class PeripheralActivity extends Activity implements BleWrapperUiCallbacks {	
+public class PeripheralActivity extends Activity implements BleWrapperUiCallbacks, UartReceiveListener {	
     public static final String EXTRAS_DEVICE_NAME    = "BLE_DEVICE_NAME";
     public static final String EXTRAS_DEVICE_ADDRESS = "BLE_DEVICE_ADDRESS";
     public static final String EXTRAS_DEVICE_RSSI    = "BLE_DEVICE_RSSI";
+    public static final String EXTRAS_DEVICE_TX_POWER = "BLE_DEVICE_TX_POWER";
+
+    /* how many chars of received messages are kept in the view */
+    private static final int MAX_RECEIVED_LENGTH = 4096;
 
 	SharedPreferences preferences;
 
@@ -41,35 +53,35 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
     private String mDeviceName;
     private String mDeviceAddress;
     private String mDeviceRSSI;
-
+    /* connection RSSI is smoothed the same way as in the scan list, touched only from UI thread */
+    private RssiEstimator mRssiEstimator = new RssiEstimator();
+    private int mDeviceTxPower = AdvertisementParser.NO_TX_POWER;
+    /* PHY the peripheral sends with, shown next to RSSI */
+    private int mDevicePhy = BluetoothDevice.PHY_LE_1M;
+
+    /* the link is owned by UartService, it stays open while the activity is paused */
+    private UartService mService;
+    private boolean mServiceBound = false;
     private BleWrapper mBleWrapper;
     
     private TextView mDeviceNameView;
     private TextView mDeviceAddressView;
     private TextView mDeviceRssiView;
     private TextView mDeviceStatus;
+    private TextView mReceivedView;
 
 	// UI elements
 	private EditText input;
 	private Button send;
 
-	StringBuilder stringBuilder;
-	String message;
-	int len;
-	int pos;
-
 
 
 	// Handler for mouse click on the send button.
 	public void sendClick(View view) {
-		message = input.getText().toString();
-
-		// We can only send 20 bytes per packet, so break longer messages
-		// up into 20 byte payloads
-		len = message.length();
-		pos = 0;
+		String message = input.getText().toString();
 
-		sendChunk();
+		// BleWrapper takes care of splitting the message into packets
+		if (mBleWrapper != null) mBleWrapper.send(message);
 
 		// Add message to list if it's not already there
 		if (message.length() > 0 && !items.contains(message)) {
@@ -78,22 +90,6 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
 
 	}
 
-	public void sendChunk() {
-		if (len != 0) {
-			stringBuilder.setLength(0);
-			if (len>=20) {
-				stringBuilder.append(message.toCharArray(), pos, 20 );
-				len-=20;
-				pos+=20;
-			}
-			else {
-				stringBuilder.append(message.toCharArray(), pos, len);
-				len = 0;
-			}
-			mBleWrapper.send(stringBuilder.toString());
-		}
-	}
-
 	public void uiDeviceConnected(final BluetoothGatt gatt,
 			                      final BluetoothDevice device)
     {
@@ -118,6 +114,7 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
 			@Override
 			public void run() {
 				mDeviceStatus.setText("disconnected");
+				mDevicePhy = BluetoothDevice.PHY_LE_1M;
 
 				invalidateOptionsMenu();
 
@@ -135,8 +132,8 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
     	runOnUiThread(new Runnable() {
 	    	@Override
 			public void run() {
-				mDeviceRSSI = rssi + " db";
-				mDeviceRssiView.setText(mDeviceRSSI);
+				mRssiEstimator.add(rssi, SystemClock.elapsedRealtime());
+				showRssi();
 			}
 		});    	
     }
@@ -181,10 +178,6 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
             					  final BluetoothGattCharacteristic ch,
             					  final String description)
 	{
-		if (len != 0) {
-			sendChunk();
-		}
-
 		runOnUiThread(new Runnable() {
 			@Override
 			public void run() {
@@ -192,6 +185,41 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
 			}
 		});
 	}
+
+	/* progress reported for every written chunk, the UI shows only the latest one */
+	private static class WriteProgress {
+		final long bytesSent;
+		final long bytesTotal;
+		final int bytesPerSecond;
+
+		WriteProgress(long bytesSent, long bytesTotal, int bytesPerSecond) {
+			this.bytesSent = bytesSent;
+			this.bytesTotal = bytesTotal;
+			this.bytesPerSecond = bytesPerSecond;
+		}
+	}
+
+	private final UiHandoff<WriteProgress> mWriteProgress = new UiHandoff<>(new UiHandoff.Receiver<WriteProgress>() {
+		@Override
+		public void onValue(WriteProgress progress) {
+			if (progress.bytesSent < progress.bytesTotal) {
+				mDeviceStatus.setText("sending " + (progress.bytesSent * 100 / progress.bytesTotal) + "% (" + progress.bytesPerSecond + " B/s)");
+			}
+			else {
+				mDeviceStatus.setText("connected");
+				Toast.makeText(getApplicationContext(), "Sent " + progress.bytesTotal + " bytes (" + progress.bytesPerSecond + " B/s)", Toast.LENGTH_SHORT).show();
+			}
+		}
+	});
+
+	public void uiWriteProgress(final BluetoothGatt gatt,
+								final BluetoothDevice device,
+								final long bytesSent,
+								final long bytesTotal,
+								final int bytesPerSecond)
+	{
+		mWriteProgress.publish(new WriteProgress(bytesSent, bytesTotal, bytesPerSecond));
+	}
 	
 	public void uiFailedWrite(final BluetoothGatt gatt,
 							  final BluetoothDevice device,
@@ -221,6 +249,75 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
 		});
 	}
 
+	/* received messages shown, one per line; the oldest are dropped beyond MAX_RECEIVED_LENGTH chars */
+	private final StringBuilder mReceivedText = new StringBuilder();
+
+	/* every received message is appended - also the backlog of messages received
+	 * in background, which the service replays right after attach() */
+	private final UiQueue<String> mReceivedMessages = new UiQueue<>(new UiQueue.Receiver<String>() {
+		@Override
+		public void onValue(String message) {
+			if (mReceivedText.length() > 0) mReceivedText.append('\n');
+			mReceivedText.append(message);
+		}
+
+		@Override
+		public void onDelivered() {
+			if (mReceivedText.length() > MAX_RECEIVED_LENGTH) {
+				mReceivedText.delete(0, mReceivedText.length() - MAX_RECEIVED_LENGTH);
+			}
+			mReceivedView.setText(mReceivedText);
+			// new text is laid out on the next pass, scroll once it is
+			mReceivedView.post(mScrollReceived);
+		}
+	});
+
+	/* keeps the latest received message in view */
+	private final Runnable mScrollReceived = new Runnable() {
+		@Override
+		public void run() {
+			Layout layout = mReceivedView.getLayout();
+			if (layout == null) return;
+			int visible = mReceivedView.getHeight() - mReceivedView.getTotalPaddingTop() - mReceivedView.getTotalPaddingBottom();
+			mReceivedView.scrollTo(0, Math.max(0, layout.getLineTop(mReceivedView.getLineCount()) - visible));
+		}
+	};
+
+	@Override
+	public void onFrameReceived(final byte[] frame, final int length) {
+		// frame array is reused by the receiver, so decode it before leaving this thread
+		mReceivedMessages.publish(new String(frame, 0, length, StandardCharsets.UTF_8));
+	}
+
+	public void uiPhyUpdated(final BluetoothGatt gatt,
+							 final BluetoothDevice device,
+							 final int txPhy,
+							 final int rxPhy,
+							 final int status)
+	{
+		if (status != BluetoothGatt.GATT_SUCCESS) return;
+		runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				mDevicePhy = rxPhy;
+				showRssi();
+			}
+		});
+	}
+
+	public void uiReconnecting(final BluetoothGatt gatt,
+							   final BluetoothDevice device,
+							   final int attempt,
+							   final long delay)
+	{
+		runOnUiThread(new Runnable() {
+			@Override
+			public void run() {
+				mDeviceStatus.setText((attempt > 0) ? "reconnecting (" + attempt + ") ..." : "reconnecting ...");
+			}
+		});
+	}
+
 	@Override
 	public void uiDeviceFound(BluetoothDevice device, int rssi, byte[] record) {
 		// no need to handle that in this Activity (here, we are not scanning)
@@ -284,38 +381,62 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
         final Intent intent = getIntent();
         mDeviceName = intent.getStringExtra(EXTRAS_DEVICE_NAME);
         mDeviceAddress = intent.getStringExtra(EXTRAS_DEVICE_ADDRESS);
-        mDeviceRSSI = intent.getIntExtra(EXTRAS_DEVICE_RSSI, 0) + " db";
+        mDeviceTxPower = intent.getIntExtra(EXTRAS_DEVICE_TX_POWER, AdvertisementParser.NO_TX_POWER);
+        mRssiEstimator.add(intent.getIntExtra(EXTRAS_DEVICE_RSSI, 0), SystemClock.elapsedRealtime());
         mDeviceNameView.setText(mDeviceName);
         mDeviceAddressView.setText(mDeviceAddress);
-        mDeviceRssiView.setText(mDeviceRSSI);
+        showRssi();
         getActionBar().setTitle(mDeviceName);
-
-		len = 0;
-		pos = 0;
-		stringBuilder = new StringBuilder();
 	}
 	
+	private final ServiceConnection mServiceConnection = new ServiceConnection() {
+		@Override
+		public void onServiceConnected(ComponentName name, IBinder binder) {
+			mService = ((UartService.LocalBinder) binder).getService();
+
+			// start automatically connecting to the device, link already open to it is just reused
+			if (!mService.connect(mDeviceAddress, mDeviceName)) {
+				finish();
+				return;
+			}
+			mBleWrapper = mService.getLink();
+			mService.attach(PeripheralActivity.this, PeripheralActivity.this);
+
+			boolean connected = mService.isConnected();
+			mDeviceStatus.setText(connected ? "connected" : "connecting ...");
+			send.setClickable(connected);
+			send.setEnabled(connected);
+			invalidateOptionsMenu();
+		}
+
+		@Override
+		public void onServiceDisconnected(ComponentName name) {
+			mService = null;
+			mBleWrapper = null;
+		}
+	};
+
 	@Override
 	protected void onResume() {
 		super.onResume();
-		if(mBleWrapper == null) mBleWrapper = new BleWrapper(this, this);
-		
-		if(!mBleWrapper.initialize()) {
-			finish();
-		}
-		
-		// start automatically connecting to the device
-    	mDeviceStatus.setText("connecting ...");
-    	mBleWrapper.connect(mDeviceAddress);
+		mServiceBound = bindService(new Intent(this, UartService.class), mServiceConnection, BIND_AUTO_CREATE);
 	}
 	
 	@Override
 	protected void onPause() {
 		super.onPause();
 		
-		mBleWrapper.stopMonitoringRssiValue();
-		mBleWrapper.disconnect();
-		mBleWrapper.close();
+		if (mService != null) {
+			mService.detach();
+			// leaving the activity ends the session, otherwise the link stays warm in the service
+			if (isFinishing()) mService.shutdown();
+		}
+		if (mServiceBound) unbindService(mServiceConnection);
+		mServiceBound = false;
+		mService = null;
+		mBleWrapper = null;
+		mWriteProgress.cancel();
+		// received messages still on their way are delivered, they are not buffered anywhere else
 
 		SharedPreferences.Editor preferencesEditor = preferences.edit();
 
@@ -339,13 +460,16 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
 	public boolean onCreateOptionsMenu(Menu menu) {
 		// Inflate the menu; this adds items to the action bar if it is present.
 		getMenuInflater().inflate(R.menu.peripheral, menu);
-		if (mBleWrapper.isConnected()) {
+		if (mBleWrapper != null && mBleWrapper.isConnected()) {
 	        menu.findItem(R.id.device_connect).setVisible(false);
 	        menu.findItem(R.id.device_disconnect).setVisible(true);
 	    } else {
 	        menu.findItem(R.id.device_connect).setVisible(true);
 	        menu.findItem(R.id.device_disconnect).setVisible(false);
 	    }		
+		MenuItem autoConnect = menu.findItem(R.id.device_auto_connect);
+		autoConnect.setVisible(mService != null);
+		autoConnect.setChecked(mService != null && mService.isAutoConnect());
 		return true;
 	}
 
@@ -353,15 +477,19 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
     public boolean onOptionsItemSelected(MenuItem item) {
         switch(item.getItemId()) {
             case R.id.device_connect:
+            	if (mService == null) return true;
             	mDeviceStatus.setText("connecting ...");
-            	mBleWrapper.connect(mDeviceAddress);
+            	mService.connect(mDeviceAddress, mDeviceName);
                 return true;
             case R.id.device_disconnect:
-            	mBleWrapper.disconnect();
+            	if (mService != null) mService.disconnect();
+                return true;
+            case R.id.device_auto_connect:
+            	if (mService != null) mService.setAutoConnect(!mService.isAutoConnect());
+            	invalidateOptionsMenu();
                 return true;
             case android.R.id.home:
-            	mBleWrapper.disconnect();
-            	mBleWrapper.close();
+            	// the link is closed in onPause() once the activity is finishing
                 onBackPressed();
                 return true;
         }
@@ -369,11 +497,23 @@ public class PeripheralActivity extends Activity implements BleWrapperUiCallback
     }	
 
     
+    /* smoothed connection RSSI with estimated distance */
+    private void showRssi() {
+    	int rssi = mRssiEstimator.getRssi();
+    	mDeviceRSSI = (rssi == 0) ? "N/A"
+    			: String.format(Locale.US, "%d db  ~%.1f m", rssi, mRssiEstimator.getDistance(mDeviceTxPower));
+    	if (mDevicePhy == BluetoothDevice.PHY_LE_2M) mDeviceRSSI += "  2M";
+    	else if (mDevicePhy == BluetoothDevice.PHY_LE_CODED) mDeviceRSSI += "  coded";
+    	mDeviceRssiView.setText(mDeviceRSSI);
+    }
+
     private void connectViewsVariables() {
     	mDeviceNameView = (TextView) findViewById(R.id.peripheral_name);
 		mDeviceAddressView = (TextView) findViewById(R.id.peripheral_address);
 		mDeviceRssiView = (TextView) findViewById(R.id.peripheral_rssi);
 		mDeviceStatus = (TextView) findViewById(R.id.peripheral_status);
+		mReceivedView = (TextView) findViewById(R.id.peripheral_received);
+		mReceivedView.setMovementMethod(new ScrollingMovementMethod());
     }
 
 
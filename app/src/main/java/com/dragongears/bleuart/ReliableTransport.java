@@ -0,0 +1,497 @@
+package com.dragongears.bleuart;
+
+/* optional reliable transport of the UART byte stream. Stream is cut into
+ * numbered packets protected by CRC-16; the receiver delivers them in order,
+ * keeps packets arriving after a gap and acknowledges with cumulative ACK
+ * plus bitmap of the packets it holds beyond it (SACK). The sender keeps up to
+ * a window of packets unacknowledged and retransmits only those missing -
+ * after timeout, or sooner once later packets were acknowledged past a gap.
+ * Packets (all end with CRC-16 of the preceding bytes, little endian):
+ *   0x10 seq payload...     data
+ *   0x11 next sack0..sack3  ACK - everything before <next> received, bit i of
+ *                           the 32 bit little endian SACK means next + 1 + i received
+ *   0x12                    reset - sender numbers its packets from 0 again
+ * Transport knows nothing about Android or BLE; everything it needs from the
+ * link it runs over comes through Link, so it can be run over a simulated
+ * lossy link as well. Not thread safe - used only from the owner's thread */
+class ReliableTransport {
+
+    interface Link {
+        /* there is a packet to send, pollPacket() it once the link can take it */
+        void onPacketReady();
+        /* next part of the stream, verified and in order */
+        void onReceive(byte[] data, int offset, int length);
+        /* the oldest segment passed to offer() (<length> bytes long) was acknowledged */
+        void onAcked(int length);
+        /* segment (or reset starting the session) was not acknowledged even after
+         * MAX_RETRIES retransmissions - all data not acknowledged yet were dropped.
+         * After a failed segment a new session is started right away, after a failed
+         * reset only once more data are offered */
+        void onFailed();
+        /* onTimer() should be called in <delay> ms, negative delay cancels the timer */
+        void schedule(long delay);
+    }
+
+    static final byte TYPE_DATA  = 0x10;
+    static final byte TYPE_ACK   = 0x11;
+    static final byte TYPE_RESET = 0x12;
+
+    private static final int DATA_HEADER_SIZE = 2;
+    static final int CRC_SIZE = 2;
+    /* bytes every data packet adds to its payload */
+    static final int DATA_OVERHEAD = DATA_HEADER_SIZE + CRC_SIZE;
+    private static final int ACK_SIZE = 2 + 4 + CRC_SIZE;
+    private static final int RESET_SIZE = 1 + CRC_SIZE;
+
+    /* sequence numbers are 8 bit; the window has to stay below half of that space and the SACK bitmap covers 32 packets */
+    static final int MAX_WINDOW = 32;
+    private static final int SEQ_MASK = 0xFF;
+
+    /* retransmission timeout (ms) - estimated from measured round trip times as in RFC 6298 */
+    static final long INITIAL_RTO = 1000;
+    static final long MIN_RTO = 100;
+    static final long MAX_RTO = 8000;
+    static final int MAX_RETRIES = 8;
+    /* missing packet is retransmitted without waiting for timeout once this many packets
+     * sent after its last transmission were acknowledged - the link delivers in order,
+     * so already one of them means the packet is lost, not late */
+    private static final int FAST_RETRANSMIT_THRESHOLD = 1;
+
+    /* single packet of the window, objects are allocated once and reused */
+    private static final class Segment {
+        byte[] data = new byte[0];
+        int length;
+        int seq;
+        long sentAt;
+        /* order of the last transmission among all data packets sent */
+        long sentOrder;
+        int transmissions;
+        int retries;
+        boolean present;
+        boolean needsSend;
+        boolean sacked;
+    }
+
+    private final Link mLink;
+    private int mWindow = MAX_WINDOW;
+    private int mMaxDataLength = UartWriteQueue.DEFAULT_CHUNK_SIZE - DATA_OVERHEAD;
+
+    /* sender - segments indexed by seq % MAX_WINDOW, mSndBase is the oldest unacknowledged */
+    private Segment[] mSend = newSegments();
+    private Segment[] mSpare = newSegments();
+    private int mSndBase = 0;
+    private int mSndNext = 0;
+    private boolean mResetPending = false;
+    private boolean mResetUnconfirmed = false;
+    /* the peer didn't confirm reset in MAX_RETRIES attempts, nothing is sent until more data come */
+    private boolean mResetFailed = false;
+    private long mResetSentAt = 0;
+    private int mResetRetries = 0;
+    private long mSentOrder = 0;
+    private long mSrtt = -1;
+    private long mRttVar = 0;
+    /* timeout estimated from round trip times; timeouts double it mBackoff times, progress resets that */
+    private long mRto = INITIAL_RTO;
+    private int mBackoff = 0;
+    private long mBackedOffAt = -MAX_RTO;
+    private final int[] mAckedLengths = new int[MAX_WINDOW];
+
+    /* receiver - packets after a gap are kept in mRecv until the gap is filled */
+    private final Segment[] mRecv = newSegments();
+    private int mRcvNext = 0;
+    private boolean mAckPending = false;
+
+    /* packet arrays indexed by their length, valid only until the next pollPacket() */
+    private byte[][] mPackets = new byte[UartWriteQueue.DEFAULT_CHUNK_SIZE + 1][];
+
+    private long mRetransmissions = 0;
+    private long mCorruptedPackets = 0;
+
+    ReliableTransport(Link link) {
+        mLink = link;
+    }
+
+    private static Segment[] newSegments() {
+        Segment[] segments = new Segment[MAX_WINDOW];
+        for (int i = 0; i < segments.length; i++) segments[i] = new Segment();
+        return segments;
+    }
+
+    /* how many packets may be unacknowledged at once */
+    void setWindow(int window) {
+        mWindow = Math.max(1, Math.min(MAX_WINDOW, window));
+    }
+
+    /* longest packet the link carries; payload offered from now on has to fit in it with DATA_OVERHEAD */
+    void setMaxPacketSize(int size) {
+        mMaxDataLength = Math.max(1, size - DATA_OVERHEAD);
+    }
+
+    int getMaxDataLength() { return mMaxDataLength; }
+    long getRetransmissions() { return mRetransmissions; }
+    long getCorruptedPackets() { return mCorruptedPackets; }
+
+    private int outstanding() {
+        return (mSndNext - mSndBase) & SEQ_MASK;
+    }
+
+    boolean hasWindowSpace() {
+        return outstanding() < mWindow;
+    }
+
+    /* starts new session - on every connection, both sides do so. Data not acknowledged
+     * yet are numbered from 0 and sent again (the peer may get some of them twice),
+     * the peer learns about it from reset packet sent ahead of them */
+    void resetSession() {
+        int count = outstanding();
+        int base = mSndBase % MAX_WINDOW;
+        for (int i = 0; i < MAX_WINDOW; i++) mSpare[i] = mSend[(base + i) % MAX_WINDOW];
+        Segment[] rotated = mSpare;
+        mSpare = mSend;
+        mSend = rotated;
+        for (int i = 0; i < count; i++) {
+            Segment segment = mSend[i];
+            segment.seq = i;
+            segment.sentAt = 0;
+            segment.transmissions = 0;
+            segment.retries = 0;
+            segment.needsSend = true;
+            segment.sacked = false;
+        }
+        mSndBase = 0;
+        mSndNext = count;
+
+        mRcvNext = 0;
+        for (Segment segment : mRecv) segment.present = false;
+        mAckPending = false;
+
+        mSrtt = -1;
+        mRto = INITIAL_RTO;
+        mBackoff = 0;
+        mResetPending = true;
+        mResetUnconfirmed = true;
+        mResetFailed = false;
+        mResetRetries = 0;
+        mLink.schedule(-1);
+        mLink.onPacketReady();
+    }
+
+    /* forgets data not acknowledged yet, when the transport stops being used;
+     * the next session starts with resetSession() as usual */
+    void clear() {
+        mSndBase = mSndNext;
+        mLink.schedule(-1);
+    }
+
+    /* queues <length> bytes as next segment of the stream; returns false if the window is full */
+    boolean offer(byte[] data, int offset, int length) {
+        if (length > mMaxDataLength) throw new IllegalArgumentException("Segment longer than " + mMaxDataLength + " bytes");
+        if (!hasWindowSpace()) return false;
+
+        Segment segment = mSend[mSndNext % MAX_WINDOW];
+        if (segment.data.length < length) segment.data = new byte[mMaxDataLength];
+        System.arraycopy(data, offset, segment.data, 0, length);
+        segment.length = length;
+        segment.seq = mSndNext;
+        segment.sentAt = 0;
+        segment.transmissions = 0;
+        segment.retries = 0;
+        segment.needsSend = true;
+        segment.sacked = false;
+        mSndNext = (mSndNext + 1) & SEQ_MASK;
+        if (mResetFailed) {
+            // the peer may have come to its senses, try the handshake again
+            mResetFailed = false;
+            mResetRetries = 0;
+            mResetPending = true;
+        }
+        if (mResetPending || !mResetUnconfirmed) mLink.onPacketReady();
+        return true;
+    }
+
+    boolean hasPacket() {
+        if (mResetPending || mAckPending) return true;
+        if (mResetUnconfirmed) return false;
+        int count = outstanding();
+        for (int i = 0; i < count; i++) {
+            if (mSend[(mSndBase + i) % MAX_WINDOW].needsSend) return true;
+        }
+        return false;
+    }
+
+    /* returns next packet to be sent, null if there is none. Control packets go
+     * first, then retransmissions and new data in sequence order. The array is
+     * valid only until the next call */
+    byte[] pollPacket(long now) {
+        if (mResetPending) {
+            mResetPending = false;
+            mResetSentAt = now;
+            byte[] packet = packet(RESET_SIZE);
+            packet[0] = TYPE_RESET;
+            Crc16.append(packet, 0, RESET_SIZE - CRC_SIZE);
+            armTimer(now);
+            return packet;
+        }
+        if (mAckPending) {
+            mAckPending = false;
+            return ackPacket();
+        }
+        // nothing is sent before the peer confirmed the new session
+        if (mResetUnconfirmed) return null;
+
+        int count = outstanding();
+        for (int i = 0; i < count; i++) {
+            Segment segment = mSend[(mSndBase + i) % MAX_WINDOW];
+            if (!segment.needsSend) continue;
+
+            segment.needsSend = false;
+            if (segment.transmissions > 0) mRetransmissions++;
+            segment.transmissions++;
+            segment.sentAt = now;
+            segment.sentOrder = mSentOrder++;
+
+            byte[] packet = packet(segment.length + DATA_OVERHEAD);
+            packet[0] = TYPE_DATA;
+            packet[1] = (byte) segment.seq;
+            System.arraycopy(segment.data, 0, packet, DATA_HEADER_SIZE, segment.length);
+            Crc16.append(packet, 0, DATA_HEADER_SIZE + segment.length);
+            armTimer(now);
+            return packet;
+        }
+        return null;
+    }
+
+    private byte[] ackPacket() {
+        int sack = 0;
+        for (int i = 0; i < MAX_WINDOW - 1; i++) {
+            int seq = (mRcvNext + 1 + i) & SEQ_MASK;
+            Segment segment = mRecv[seq % MAX_WINDOW];
+            if (segment.present && segment.seq == seq) sack |= 1 << i;
+        }
+        byte[] packet = packet(ACK_SIZE);
+        packet[0] = TYPE_ACK;
+        packet[1] = (byte) mRcvNext;
+        packet[2] = (byte) sack;
+        packet[3] = (byte) (sack >> 8);
+        packet[4] = (byte) (sack >> 16);
+        packet[5] = (byte) (sack >> 24);
+        Crc16.append(packet, 0, ACK_SIZE - CRC_SIZE);
+        return packet;
+    }
+
+    private byte[] packet(int length) {
+        if (mPackets.length <= length) mPackets = new byte[length + 1][];
+        byte[] packet = mPackets[length];
+        if (packet == null) {
+            packet = new byte[length];
+            mPackets[length] = packet;
+        }
+        return packet;
+    }
+
+    /* handles packet received from the peer */
+    void onPacket(byte[] packet, int offset, int length, long now) {
+        if (length < 1 + CRC_SIZE || !Crc16.check(packet, offset, length)) {
+            // corrupted packet is dropped, the sender retransmits it
+            mCorruptedPackets++;
+            return;
+        }
+        int body = length - CRC_SIZE;
+        switch (packet[offset]) {
+            case TYPE_DATA:
+                if (body < DATA_HEADER_SIZE) return;
+                onData(packet[offset + 1] & SEQ_MASK, packet, offset + DATA_HEADER_SIZE, body - DATA_HEADER_SIZE);
+                break;
+            case TYPE_ACK:
+                if (body < ACK_SIZE - CRC_SIZE) return;
+                int sack = (packet[offset + 2] & 0xFF) | (packet[offset + 3] & 0xFF) << 8
+                         | (packet[offset + 4] & 0xFF) << 16 | (packet[offset + 5] & 0xFF) << 24;
+                onAck(packet[offset + 1] & SEQ_MASK, sack, now);
+                break;
+            case TYPE_RESET:
+                // peer numbers its packets from 0 again
+                mRcvNext = 0;
+                for (Segment segment : mRecv) segment.present = false;
+                mAckPending = true;
+                mLink.onPacketReady();
+                break;
+        }
+    }
+
+    private void onData(int seq, byte[] data, int offset, int length) {
+        int distance = (seq - mRcvNext) & SEQ_MASK;
+        if (distance == 0) {
+            mLink.onReceive(data, offset, length);
+            mRcvNext = (mRcvNext + 1) & SEQ_MASK;
+            // the gap is filled, packets kept behind it follow
+            Segment next;
+            while ((next = mRecv[mRcvNext % MAX_WINDOW]).present && next.seq == mRcvNext) {
+                next.present = false;
+                mLink.onReceive(next.data, 0, next.length);
+                mRcvNext = (mRcvNext + 1) & SEQ_MASK;
+            }
+        }
+        else if (distance < MAX_WINDOW) {
+            Segment segment = mRecv[seq % MAX_WINDOW];
+            if (!segment.present) {
+                if (segment.data.length < length) segment.data = new byte[length];
+                System.arraycopy(data, offset, segment.data, 0, length);
+                segment.length = length;
+                segment.seq = seq;
+                segment.present = true;
+            }
+        }
+        // anything else is duplicate of packet delivered already (its ACK got lost) - just acknowledge again
+        mAckPending = true;
+        mLink.onPacketReady();
+    }
+
+    private void onAck(int next, int sack, long now) {
+        boolean progress = false;
+        if (mResetUnconfirmed) {
+            // the first ACK of the new session confirms the reset
+            if (mResetFailed || next != mSndBase) return;
+            mResetUnconfirmed = false;
+            progress = true;
+        }
+
+        int acked = (next - mSndBase) & SEQ_MASK;
+        // stale ACK (older than what we know is acknowledged) is ignored
+        if (acked > outstanding()) return;
+        for (int i = 0; i < acked; i++) {
+            Segment segment = mSend[mSndBase % MAX_WINDOW];
+            // only packets sent once give unambiguous round trip time (Karn's algorithm)
+            if (segment.transmissions == 1) sampleRtt(now - segment.sentAt);
+            mAckedLengths[i] = segment.length;
+            mSndBase = (mSndBase + 1) & SEQ_MASK;
+        }
+        if (acked > 0) progress = true;
+
+        // selective part - packets the peer holds beyond the gap aren't sent again
+        int count = outstanding();
+        int sacked = 0;
+        for (int i = 1; i < count && i < MAX_WINDOW; i++) {
+            Segment segment = mSend[(mSndBase + i) % MAX_WINDOW];
+            if ((sack & (1 << (i - 1))) == 0) continue;
+            if (!segment.sacked) progress = true;
+            segment.sacked = true;
+            segment.needsSend = false;
+            sacked++;
+        }
+        // packet still missing although enough packets sent after it made it is lost -
+        // also when it was lost again after being retransmitted once
+        if (sacked >= FAST_RETRANSMIT_THRESHOLD) {
+            for (int i = 0; i < count; i++) {
+                Segment segment = mSend[(mSndBase + i) % MAX_WINDOW];
+                if (segment.sacked || segment.needsSend || segment.transmissions == 0) continue;
+                if (sentLaterAndSacked(segment.sentOrder, count) >= FAST_RETRANSMIT_THRESHOLD) segment.needsSend = true;
+            }
+        }
+
+        // the link delivers again - timeout goes back to what round trip times say
+        if (progress) {
+            mBackoff = 0;
+            mBackedOffAt = now - MAX_RTO;
+        }
+        armTimer(now);
+        // callbacks last - they may offer new data right away
+        for (int i = 0; i < acked; i++) mLink.onAcked(mAckedLengths[i]);
+        if (hasPacket()) mLink.onPacketReady();
+    }
+
+    private int sentLaterAndSacked(long sentOrder, int count) {
+        int later = 0;
+        for (int i = 0; i < count; i++) {
+            Segment segment = mSend[(mSndBase + i) % MAX_WINDOW];
+            if (segment.sacked && segment.sentOrder > sentOrder) later++;
+        }
+        return later;
+    }
+
+    private long rto() {
+        return Math.min(MAX_RTO, mRto << mBackoff);
+    }
+
+    private void sampleRtt(long rtt) {
+        if (mSrtt < 0) {
+            mSrtt = rtt;
+            mRttVar = rtt / 2;
+        }
+        else {
+            mRttVar = (3 * mRttVar + Math.abs(mSrtt - rtt)) / 4;
+            mSrtt = (7 * mSrtt + rtt) / 8;
+        }
+        mRto = Math.max(MIN_RTO, Math.min(MAX_RTO, mSrtt + Math.max(1, 4 * mRttVar)));
+    }
+
+    /* retransmission timer expired (it may be a bit early or late) */
+    void onTimer(long now) {
+        long rto = rto();
+        boolean expired = false;
+        if (resetAwaited() && now - mResetSentAt >= rto) {
+            if (++mResetRetries > MAX_RETRIES) {
+                failReset();
+                return;
+            }
+            mResetPending = true;
+            expired = true;
+        }
+
+        int count = outstanding();
+        for (int i = 0; i < count; i++) {
+            Segment segment = mSend[(mSndBase + i) % MAX_WINDOW];
+            if (segment.sacked || segment.needsSend || segment.transmissions == 0) continue;
+            if (now - segment.sentAt < rto) continue;
+            if (++segment.retries > MAX_RETRIES) {
+                fail();
+                return;
+            }
+            segment.needsSend = true;
+            expired = true;
+        }
+
+        if (expired) {
+            // back off once per timeout - packets sent in a burst expire one after
+            // another and shouldn't multiply the timeout for a single loss
+            if (now - mBackedOffAt >= rto && rto < MAX_RTO) {
+                mBackoff++;
+                mBackedOffAt = now;
+            }
+            mLink.onPacketReady();
+        }
+        armTimer(now);
+    }
+
+    private boolean resetAwaited() {
+        return mResetUnconfirmed && !mResetPending && !mResetFailed;
+    }
+
+    /* gives up on data not acknowledged and starts over */
+    private void fail() {
+        mSndBase = mSndNext;
+        mLink.onFailed();
+        resetSession();
+    }
+
+    /* the peer doesn't answer reset - gives up on data and stays quiet until more are offered */
+    private void failReset() {
+        mSndBase = mSndNext;
+        mResetFailed = true;
+        mLink.schedule(-1);
+        mLink.onFailed();
+    }
+
+    /* keeps the timer pointed at the earliest retransmission deadline */
+    private void armTimer(long now) {
+        long rto = rto();
+        long deadline = Long.MAX_VALUE;
+        if (resetAwaited()) deadline = mResetSentAt + rto;
+        int count = outstanding();
+        for (int i = 0; i < count; i++) {
+            Segment segment = mSend[(mSndBase + i) % MAX_WINDOW];
+            if (segment.sacked || segment.needsSend || segment.transmissions == 0) continue;
+            deadline = Math.min(deadline, segment.sentAt + rto);
+        }
+        mLink.schedule((deadline == Long.MAX_VALUE) ? -1 : Math.max(0, deadline - now));
+    }
+}
@@ -0,0 +1,110 @@
+package com.dragongears.bleuart;
+
+/* smooths noisy RSSI samples of one device and estimates its distance.
+ * Every sample goes first through a short median window (removes single
+ * deep fades and reflections) and then through a scalar Kalman filter
+ * whose process noise grows with time since the previous sample, so the
+ * estimate follows a moving device but stays calm for a still one.
+ * Samples are kept in a primitive ring, adding one allocates nothing */
+class RssiEstimator {
+
+    static final int DEFAULT_WINDOW = 5;
+    /* RSSI expected 1 m away from a device which doesn't advertise its TX power */
+    static final int DEFAULT_MEASURED_POWER = -59;
+    /* typical loss between the antenna and 1 m distance, subtracted from advertised TX power */
+    static final int LOSS_AT_ONE_METER = 41;
+    /* 2.0 is free space, indoors it is usually between 2 and 4 */
+    static final double DEFAULT_PATH_LOSS_EXPONENT = 2.0;
+
+    /* variance of RSSI change per second (dB^2) and of single measurement (dB^2) */
+    private static final double PROCESS_NOISE = 2.0;
+    private static final double MEASUREMENT_NOISE = 9.0;
+    /* RSSI value reported by the stack when it doesn't know the real one */
+    private static final int RSSI_UNAVAILABLE = 127;
+
+    private final int[] mSamples;
+    private final int[] mSorted;
+    private int mCount = 0;
+    private int mNext = 0;
+
+    private boolean mValid = false;
+    private double mEstimate = 0;
+    private double mVariance = 0;
+    private long mLastUpdate = 0;
+    private double mPathLossExponent = DEFAULT_PATH_LOSS_EXPONENT;
+
+    RssiEstimator() {
+        this(DEFAULT_WINDOW);
+    }
+
+    RssiEstimator(int window) {
+        mSamples = new int[Math.max(1, window)];
+        mSorted = new int[mSamples.length];
+    }
+
+    /* adds sample received at <now> (SystemClock.elapsedRealtime()) */
+    void add(int rssi, long now) {
+        if (rssi == 0 || rssi >= RSSI_UNAVAILABLE) return;
+
+        mSamples[mNext] = rssi;
+        mNext = (mNext + 1) % mSamples.length;
+        if (mCount < mSamples.length) mCount++;
+        double measurement = median();
+
+        if (!mValid) {
+            mEstimate = measurement;
+            mVariance = MEASUREMENT_NOISE;
+            mValid = true;
+        }
+        else {
+            double seconds = Math.max(0, now - mLastUpdate) / 1000.0;
+            mVariance += PROCESS_NOISE * seconds;
+            double gain = mVariance / (mVariance + MEASUREMENT_NOISE);
+            mEstimate += gain * (measurement - mEstimate);
+            mVariance *= 1 - gain;
+        }
+        mLastUpdate = now;
+    }
+
+    void reset() {
+        mCount = 0;
+        mNext = 0;
+        mValid = false;
+    }
+
+    boolean hasEstimate() { return mValid; }
+
+    /* smoothed RSSI in dBm, 0 if there was no sample yet (same as "unknown" elsewhere in the app) */
+    int getRssi() {
+        return mValid ? (int) Math.round(mEstimate) : 0;
+    }
+
+    void setPathLossExponent(double exponent) {
+        if (exponent > 0) mPathLossExponent = exponent;
+    }
+
+    /* estimated distance in meters from log-distance path loss model,
+     * <txPower> is advertised TX power (AdvertisementParser.NO_TX_POWER if unknown);
+     * returns -1 if there was no sample yet */
+    double getDistance(int txPower) {
+        if (!mValid) return -1;
+        int measuredPower = (txPower == AdvertisementParser.NO_TX_POWER)
+                ? DEFAULT_MEASURED_POWER : txPower - LOSS_AT_ONE_METER;
+        return Math.pow(10, (measuredPower - mEstimate) / (10 * mPathLossExponent));
+    }
+
+    private double median() {
+        System.arraycopy(mSamples, 0, mSorted, 0, mCount);
+        for (int i = 1; i < mCount; i++) {
+            int value = mSorted[i];
+            int j = i - 1;
+            while (j >= 0 && mSorted[j] > value) {
+                mSorted[j + 1] = mSorted[j];
+                j--;
+            }
+            mSorted[j + 1] = value;
+        }
+        int middle = mCount / 2;
+        return (mCount % 2 == 1) ? mSorted[middle] : (mSorted[middle - 1] + mSorted[middle]) / 2.0;
+    }
+}
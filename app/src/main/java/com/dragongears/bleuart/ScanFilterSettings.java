@@ -0,0 +1,73 @@
+package com.dragongears.bleuart;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import android.bluetooth.le.ScanFilter;
+import android.os.ParcelUuid;
+
+/* which advertisers we are interested in while scanning. Service UUID and
+ * manufacturer data become ScanFilters, so the controller drops everything
+ * else before it wakes up the app; ScanFilter can't express name prefix
+ * or minimal RSSI, those are checked for results which pass the controller */
+class ScanFilterSettings {
+
+	static final int NO_MANUFACTURER = -1;
+	static final int NO_MIN_RSSI = Integer.MIN_VALUE;
+
+	private UUID mServiceUuid = null;
+	private int mManufacturerId = NO_MANUFACTURER;
+	private byte[] mManufacturerData = null;
+	private byte[] mManufacturerDataMask = null;
+	private String mNamePrefix = null;
+	private int mMinRssi = NO_MIN_RSSI;
+
+	/* only devices advertising this service */
+	ScanFilterSettings setServiceUuid(UUID uuid) {
+		mServiceUuid = uuid;
+		return this;
+	}
+
+	/* only devices with manufacturer specific data of this company whose
+	 * data start with <data> (compared on bits set in <mask>, mask may be null) */
+	ScanFilterSettings setManufacturerData(int manufacturerId, byte[] data, byte[] mask) {
+		mManufacturerId = manufacturerId;
+		mManufacturerData = (data != null) ? data : new byte[0];
+		mManufacturerDataMask = mask;
+		return this;
+	}
+
+	/* only devices whose advertised name starts with <prefix> */
+	ScanFilterSettings setNamePrefix(String prefix) {
+		mNamePrefix = (prefix != null && !prefix.isEmpty()) ? prefix : null;
+		return this;
+	}
+
+	/* only devices heard at least this strong */
+	ScanFilterSettings setMinRssi(int rssi) {
+		mMinRssi = rssi;
+		return this;
+	}
+
+	/* filters for the controller, null if every advertiser should be reported */
+	List<ScanFilter> buildFilters() {
+		if(mServiceUuid == null && mManufacturerId == NO_MANUFACTURER) return null;
+
+		ScanFilter.Builder builder = new ScanFilter.Builder();
+		if(mServiceUuid != null) builder.setServiceUuid(new ParcelUuid(mServiceUuid));
+		if(mManufacturerId != NO_MANUFACTURER) builder.setManufacturerData(mManufacturerId, mManufacturerData, mManufacturerDataMask);
+
+		List<ScanFilter> filters = new ArrayList<>(1);
+		filters.add(builder.build());
+		return filters;
+	}
+
+	/* checks the conditions the controller can't check for us,
+	 * <advertisement> has to be already parsed */
+	boolean matches(int rssi, AdvertisementParser advertisement) {
+		if(rssi < mMinRssi) return false;
+		if(mNamePrefix != null && !advertisement.nameStartsWith(mNamePrefix)) return false;
+		return true;
+	}
+}
@@ -0,0 +1,113 @@
+package com.dragongears.bleuart;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/* keeps scanning for as long as it is running, alternating scan window
+ * (radio on) with idle window (radio off) to save the battery. Only one
+ * timer is pending at any time and both timers are removed by stop().
+ * Android 7.0+ silently ignores the 6th scan started within 30 seconds,
+ * so every start is delayed as needed to stay within that limit */
+class ScanScheduler {
+
+    static final long DEFAULT_SCAN_WINDOW = 10 * 1000;
+    static final long DEFAULT_IDLE_WINDOW = 20 * 1000;
+
+    /* scan start rate allowed by the system */
+    private static final int MAX_STARTS = 5;
+    private static final long START_LIMIT_PERIOD = 30 * 1000;
+    /* safety margin added to the limit period - clocks of the app and the system aren't read at the same moment */
+    private static final long START_LIMIT_MARGIN = 500;
+
+    private final BleWrapper mBleWrapper;
+    private final Handler mHandler;
+
+    private long mScanWindow = DEFAULT_SCAN_WINDOW;
+    private long mIdleWindow = DEFAULT_IDLE_WINDOW;
+    private boolean mRunning = false;
+    private boolean mScanning = false;
+
+    /* SystemClock.elapsedRealtime() of the last MAX_STARTS scan starts, mNextStart is the oldest one */
+    private final long[] mStarts = new long[MAX_STARTS];
+    private int mNextStart = 0;
+    private int mStartCount = 0;
+
+    ScanScheduler(BleWrapper bleWrapper, Handler handler) {
+        mBleWrapper = bleWrapper;
+        mHandler = handler;
+    }
+
+    /* <idleWindow> 0 means continuous scanning, the scan is then never stopped by the scheduler */
+    void setDutyCycle(long scanWindow, long idleWindow) {
+        mScanWindow = Math.max(1, scanWindow);
+        mIdleWindow = Math.max(0, idleWindow);
+        restart();
+    }
+
+    long getScanWindow() { return mScanWindow; }
+    long getIdleWindow() { return mIdleWindow; }
+    boolean isRunning()  { return mRunning; }
+    /* true if the radio is scanning right now (not in idle window) */
+    boolean isScanning() { return mScanning; }
+
+    void start() {
+        if (mRunning) return;
+        mRunning = true;
+        scheduleStart(0);
+    }
+
+    void stop() {
+        mRunning = false;
+        mHandler.removeCallbacks(mStartScan);
+        mHandler.removeCallbacks(mStopScan);
+        if (mScanning) {
+            mScanning = false;
+            mBleWrapper.stopScanning();
+        }
+    }
+
+    /* begins new scan window right away (or as soon as the rate limit allows),
+     * used when scan settings changed */
+    void restart() {
+        if (!mRunning) return;
+        stop();
+        start();
+    }
+
+    private void scheduleStart(long delay) {
+        if (mStartCount == MAX_STARTS) {
+            long allowed = mStarts[mNextStart] + START_LIMIT_PERIOD + START_LIMIT_MARGIN;
+            delay = Math.max(delay, allowed - SystemClock.elapsedRealtime());
+        }
+        mHandler.postDelayed(mStartScan, delay);
+    }
+
+    private final Runnable mStartScan = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) return;
+
+            if (!mBleWrapper.startScanning()) {
+                // BT is off - keep trying, the scan goes on once the user turns it back on
+                scheduleStart((mIdleWindow > 0) ? mIdleWindow : mScanWindow);
+                return;
+            }
+            mStarts[mNextStart] = SystemClock.elapsedRealtime();
+            mNextStart = (mNextStart + 1) % MAX_STARTS;
+            if (mStartCount < MAX_STARTS) mStartCount++;
+
+            mScanning = true;
+            if (mIdleWindow > 0) mHandler.postDelayed(mStopScan, mScanWindow);
+        }
+    };
+
+    private final Runnable mStopScan = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) return;
+            mScanning = false;
+            mBleWrapper.stopScanning();
+            scheduleStart(mIdleWindow);
+        }
+    };
+}
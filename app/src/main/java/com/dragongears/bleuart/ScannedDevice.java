@@ -0,0 +1,69 @@
+package com.dragongears.bleuart;
+
+import android.bluetooth.BluetoothDevice;
+
+/* everything we know about single device seen while scanning; updated
+ * in place every time the device advertises again */
+class ScannedDevice {
+
+	final BluetoothDevice device;
+	/* MAC address packed into 48 bits of long, used as the key in the device table */
+	final long address;
+
+	/* smoothed RSSI, raw samples go through <signal> */
+	int rssi;
+	final RssiEstimator signal = new RssiEstimator();
+	byte[] scanRecord;
+	/* name and TX power taken from the last advertisement */
+	String advertisedName;
+	int txPower = AdvertisementParser.NO_TX_POWER;
+	/* SystemClock.elapsedRealtime() of the last advertisement */
+	long lastSeen;
+	/* set when values shown in the list changed since the row was last drawn */
+	boolean changed;
+	/* neighbours in the device table's list ordered by lastSeen, the table links and unlinks them */
+	ScannedDevice older;
+	ScannedDevice newer;
+	/* set when the table dropped the device, until it is removed from the list */
+	boolean evicted;
+	/* index in the displayed list, kept up to date by the table */
+	int position;
+
+	ScannedDevice(BluetoothDevice device, long address) {
+		this.device = device;
+		this.address = address;
+	}
+
+	/* <advertisement> is parser already pointed at <scanRecord> */
+	void update(int rssi, byte[] scanRecord, AdvertisementParser advertisement, long now) {
+		signal.add(rssi, now);
+		int smoothed = signal.getRssi();
+		if (smoothed != this.rssi) changed = true;
+		this.rssi = smoothed;
+		this.scanRecord = scanRecord;
+		this.lastSeen = now;
+
+		// name is decoded only when it differs from the one we already have
+		if (advertisement.hasName() && !advertisement.nameEquals(advertisedName)) {
+			advertisedName = advertisement.getName();
+			changed = true;
+		}
+		int tx = advertisement.getTxPowerLevel();
+		if (tx != AdvertisementParser.NO_TX_POWER) txPower = tx;
+	}
+
+	/* estimated distance in meters, -1 if unknown */
+	double distance() {
+		return signal.getDistance(txPower);
+	}
+
+	/* "AA:BB:CC:DD:EE:FF" -> 0xAABBCCDDEEFF without creating any objects */
+	static long addressToLong(String address) {
+		long result = 0;
+		for (int i = 0; i < address.length(); i++) {
+			int digit = Character.digit(address.charAt(i), 16);
+			if (digit >= 0) result = (result << 4) | digit;
+		}
+		return result;
+	}
+}
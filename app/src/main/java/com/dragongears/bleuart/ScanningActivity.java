@@ -1,28 +1,70 @@
 package com.dragongears.bleuart;
 
+import java.util.ArrayList;
+
 import com.dragongears.bleuart.R;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.ListActivity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.le.ScanSettings;
+import android.content.DialogInterface;
 import android.content.Intent;
+import android.text.InputType;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.EditText;
 import android.widget.ListView;
 import android.widget.Toast;
 
 public class ScanningActivity extends ListActivity {
 	
-	private static final long SCANNING_TIMEOUT = 5 * 1000; /* 5 seconds */
 	private static final int ENABLE_BT_REQUEST_ID = 1;
-	
+	/* let the controller batch scan results for this long (if it can) */
+	private static final long SCAN_REPORT_DELAY = 500;
+	/* the device list is refreshed at most once per this many milliseconds */
+	private static final long LIST_REFRESH_INTERVAL = 200;
+	/* how often devices which are gone are looked for */
+	private static final long DEVICE_AGING_INTERVAL = 5 * 1000;
+	/* weakest signal reported with "Nearby devices only", roughly a few meters */
+	private static final int NEARBY_RSSI = -70;
+
+	/* single result waiting for the next list refresh */
+	private static class FoundDevice {
+		final BluetoothDevice device;
+		final int rssi;
+		final byte[] scanRecord;
+
+		FoundDevice(BluetoothDevice device, int rssi, byte[] scanRecord) {
+			this.device = device;
+			this.rssi = rssi;
+			this.scanRecord = scanRecord;
+		}
+	}
+
+	/* results collected from the scan callback since the last refresh, guarded by itself */
+	private final ArrayList<FoundDevice> mPendingDevices = new ArrayList<>();
+	private boolean mRefreshPosted = false;
+	private long mLastRefresh = 0;
+
 	private boolean mScanning = false;
+	/* report only peripherals advertising the UART service */
+	private boolean mUartOnly = true;
+	/* report only peripherals heard at least NEARBY_RSSI strong */
+	private boolean mNearbyOnly = false;
+	/* report only peripherals whose name starts with this, null for any name */
+	private String mNamePrefix = null;
+	/* report only peripherals with manufacturer data of this company */
+	private int mManufacturerId = ScanFilterSettings.NO_MANUFACTURER;
 	private Handler mHandler = new Handler();
 	private DeviceListAdapter mDevicesListAdapter = null;
 	private BleWrapper mBleWrapper = null;
+	private ScanScheduler mScanScheduler = null;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -40,6 +82,9 @@ public class ScanningActivity extends ListActivity {
         if(!mBleWrapper.checkBleHardwareAvailable()) {
         	bleMissing();
         }
+        mBleWrapper.setScanReportDelay(SCAN_REPORT_DELAY);
+        mBleWrapper.setScanFilter(buildScanFilter());
+        mScanScheduler = new ScanScheduler(mBleWrapper, mHandler);
     }
 
     @Override
@@ -58,13 +103,14 @@ public class ScanningActivity extends ListActivity {
         mBleWrapper.initialize();
     	
     	mDevicesListAdapter = new DeviceListAdapter(this);
+    	mDevicesListAdapter.setTimeToLive(deviceTimeToLive());
         setListAdapter(mDevicesListAdapter);
+        mHandler.postDelayed(mAgeDevices, DEVICE_AGING_INTERVAL);
     	
-        // Automatically start scanning for devices
+        // Automatically start scanning for devices - the scheduler alternates
+        // scanning with idle periods to not drain the battery
     	mScanning = true;
-		// remember to add timeout for scanning to not run it forever and drain the battery
-		addScanningTimeout();    	
-		mBleWrapper.startScanning();
+		mScanScheduler.start();
 		
         invalidateOptionsMenu();
     };
@@ -73,12 +119,25 @@ public class ScanningActivity extends ListActivity {
     protected void onPause() {
     	super.onPause();
     	mScanning = false;    	
-    	mBleWrapper.stopScanning();
+    	mScanScheduler.stop();
     	invalidateOptionsMenu();
     	
+    	mHandler.removeCallbacks(mRefreshList);
+    	mHandler.removeCallbacks(mAgeDevices);
+    	synchronized (mPendingDevices) {
+    		mPendingDevices.clear();
+    		mRefreshPosted = false;
+    	}
     	mDevicesListAdapter.clearList();
     };
     
+    @Override
+    protected void onDestroy() {
+    	super.onDestroy();
+    	// ends the wrapper's event loop thread
+    	mBleWrapper.close();
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
@@ -95,6 +154,22 @@ public class ScanningActivity extends ListActivity {
             menu.findItem(R.id.scanning_stop).setVisible(false);
             menu.findItem(R.id.scanning_indicator).setActionView(null);
         }
+
+        switch (mBleWrapper.getScanMode()) {
+            case ScanSettings.SCAN_MODE_BALANCED:
+                menu.findItem(R.id.scanning_mode_balanced).setChecked(true);
+                break;
+            case ScanSettings.SCAN_MODE_LOW_LATENCY:
+                menu.findItem(R.id.scanning_mode_low_latency).setChecked(true);
+                break;
+            default:
+                menu.findItem(R.id.scanning_mode_low_power).setChecked(true);
+                break;
+        }
+        menu.findItem(R.id.scanning_uart_only).setChecked(mUartOnly);
+        menu.findItem(R.id.scanning_nearby_only).setChecked(mNearbyOnly);
+        menu.findItem(R.id.scanning_continuous).setChecked(mScanScheduler.getIdleWindow() == 0);
+        menu.findItem(R.id.scanning_last_device).setVisible(UartService.getLastAddress(this) != null);
         return true;
     }
 
@@ -103,11 +178,46 @@ public class ScanningActivity extends ListActivity {
         switch (item.getItemId()) {
             case R.id.scanning_start:
             	mScanning = true;
-            	mBleWrapper.startScanning();
+            	mScanScheduler.start();
                 break;
             case R.id.scanning_stop:
             	mScanning = false;
-            	mBleWrapper.stopScanning();
+            	mScanScheduler.stop();
+                break;
+            case R.id.scanning_mode_low_power:
+            	changeScanMode(ScanSettings.SCAN_MODE_LOW_POWER);
+                break;
+            case R.id.scanning_mode_balanced:
+            	changeScanMode(ScanSettings.SCAN_MODE_BALANCED);
+                break;
+            case R.id.scanning_mode_low_latency:
+            	changeScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY);
+                break;
+            case R.id.scanning_uart_only:
+            	mUartOnly = !mUartOnly;
+            	changeScanFilter();
+                break;
+            case R.id.scanning_nearby_only:
+            	mNearbyOnly = !mNearbyOnly;
+            	changeScanFilter();
+                break;
+            case R.id.scanning_name_prefix:
+            	askNamePrefix();
+                break;
+            case R.id.scanning_manufacturer:
+            	askManufacturer();
+                break;
+            case R.id.scanning_continuous:
+            	// continuous scan finds devices sooner, duty cycled one saves the battery
+            	if (mScanScheduler.getIdleWindow() == 0) {
+            		setScanDutyCycle(ScanScheduler.DEFAULT_SCAN_WINDOW, ScanScheduler.DEFAULT_IDLE_WINDOW);
+            	}
+            	else {
+            		setScanDutyCycle(ScanScheduler.DEFAULT_SCAN_WINDOW, 0);
+            	}
+                break;
+            case R.id.scanning_last_device:
+            	openLastDevice();
                 break;
         }
         
@@ -126,15 +236,30 @@ public class ScanningActivity extends ListActivity {
         intent.putExtra(PeripheralActivity.EXTRAS_DEVICE_NAME, device.getName());
         intent.putExtra(PeripheralActivity.EXTRAS_DEVICE_ADDRESS, device.getAddress());
         intent.putExtra(PeripheralActivity.EXTRAS_DEVICE_RSSI, mDevicesListAdapter.getRssi(position));
+        intent.putExtra(PeripheralActivity.EXTRAS_DEVICE_TX_POWER, mDevicesListAdapter.getTxPower(position));
         
         if (mScanning) {
             mScanning = false;
             invalidateOptionsMenu();
-            mBleWrapper.stopScanning();
+            mScanScheduler.stop();
         }
 
         startActivity(intent);
     }    
+
+    /* connects straight to the peripheral used last time, without waiting for it in scan results */
+    private void openLastDevice() {
+        final Intent intent = new Intent(this, PeripheralActivity.class);
+        intent.putExtra(PeripheralActivity.EXTRAS_DEVICE_NAME, UartService.getLastName(this));
+        intent.putExtra(PeripheralActivity.EXTRAS_DEVICE_ADDRESS, UartService.getLastAddress(this));
+
+        if (mScanning) {
+            mScanning = false;
+            mScanScheduler.stop();
+        }
+
+        startActivity(intent);
+    }
     
     /* check if user agreed to enable BT */
     @Override
@@ -149,35 +274,159 @@ public class ScanningActivity extends ListActivity {
         super.onActivityResult(requestCode, resultCode, data);
     }
 
-	/* make sure that potential scanning will take no longer
-	 * than <SCANNING_TIMEOUT> seconds from now on */
-	private void addScanningTimeout() {
-		Runnable timeout = new Runnable() {
-            @Override
-            public void run() {
-            	if(mBleWrapper == null) return;
-                mScanning = false;
-                mBleWrapper.stopScanning();
-                invalidateOptionsMenu();
-            }
-        };
-        mHandler.postDelayed(timeout, SCANNING_TIMEOUT);
-	}    
+    /* new scan mode is used right away if we are scanning now */
+    private void changeScanMode(int scanMode) {
+    	mBleWrapper.setScanMode(scanMode);
+    	mScanScheduler.restart();
+    }
+
+    /* filter used for scanning - the controller drops advertisers without UART service
+     * or without data of the chosen manufacturer, name and signal strength are checked in software */
+    private ScanFilterSettings buildScanFilter() {
+    	ScanFilterSettings filter = new ScanFilterSettings();
+    	if (mUartOnly) filter.setServiceUuid(BleWrapper.UART_UUID);
+    	if (mManufacturerId != ScanFilterSettings.NO_MANUFACTURER) filter.setManufacturerData(mManufacturerId, null, null);
+    	if (mNearbyOnly) filter.setMinRssi(NEARBY_RSSI);
+    	filter.setNamePrefix(mNamePrefix);
+    	return filter;
+    }
+
+    private void askNamePrefix() {
+    	final EditText input = new EditText(this);
+    	input.setSingleLine();
+    	if (mNamePrefix != null) input.setText(mNamePrefix);
+
+    	AlertDialog.Builder alert = new AlertDialog.Builder(this);
+    	alert.setTitle("Name starts with");
+    	alert.setMessage("Leave empty to show devices of any name");
+    	alert.setView(input);
+    	alert.setPositiveButton("OK", new DialogInterface.OnClickListener() {
+    		public void onClick(DialogInterface dialog, int id) {
+    			String prefix = input.getText().toString().trim();
+    			mNamePrefix = prefix.isEmpty() ? null : prefix;
+    			changeScanFilter();
+    		}
+    	});
+    	alert.setNegativeButton("Cancel", null);
+    	alert.show();
+    }
+
+    /* company identifier is entered in hex, as the SIG lists it (e.g. 0059 for Nordic) */
+    private void askManufacturer() {
+    	final EditText input = new EditText(this);
+    	input.setSingleLine();
+    	input.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+    	if (mManufacturerId != ScanFilterSettings.NO_MANUFACTURER) input.setText(String.format("%04X", mManufacturerId));
+
+    	AlertDialog.Builder alert = new AlertDialog.Builder(this);
+    	alert.setTitle("Manufacturer");
+    	alert.setMessage("Company identifier in hex, leave empty to show devices of any manufacturer");
+    	alert.setView(input);
+    	alert.setPositiveButton("OK", new DialogInterface.OnClickListener() {
+    		public void onClick(DialogInterface dialog, int id) {
+    			String text = input.getText().toString().trim();
+    			int manufacturerId = ScanFilterSettings.NO_MANUFACTURER;
+    			if (!text.isEmpty()) {
+    				try {
+    					manufacturerId = Integer.parseInt(text, 16);
+    				}
+    				catch (NumberFormatException e) {
+    					manufacturerId = -1;
+    				}
+    				if (manufacturerId < 0 || manufacturerId > 0xFFFF) {
+    					Toast.makeText(ScanningActivity.this, "Not a company identifier: " + text, Toast.LENGTH_SHORT).show();
+    					return;
+    				}
+    			}
+    			mManufacturerId = manufacturerId;
+    			changeScanFilter();
+    		}
+    	});
+    	alert.setNegativeButton("Cancel", null);
+    	alert.show();
+    }
+
+    /* devices found with previous filter are dropped, scanning restarts with the new one */
+    private void changeScanFilter() {
+    	mBleWrapper.setScanFilter(buildScanFilter());
+    	if (mScanning) {
+    		mScanScheduler.stop();
+    		synchronized (mPendingDevices) {
+    			mPendingDevices.clear();
+    		}
+    		mDevicesListAdapter.clearList();
+    		mDevicesListAdapter.notifyDataSetChanged();
+    		mScanScheduler.start();
+    	}
+    }
+
+    /* set how long the radio scans and then stays idle, idle 0 means scanning continuously */
+    private void setScanDutyCycle(long scanWindow, long idleWindow) {
+    	mScanScheduler.setDutyCycle(scanWindow, idleWindow);
+    	if (mDevicesListAdapter != null) mDevicesListAdapter.setTimeToLive(deviceTimeToLive());
+    }
+
+    /* device which missed two whole scan cycles is considered gone */
+    private long deviceTimeToLive() {
+    	return 2 * (mScanScheduler.getScanWindow() + mScanScheduler.getIdleWindow());
+    }
+
+    /* keeps only devices which are still around in the list */
+    private final Runnable mAgeDevices = new Runnable() {
+    	@Override
+    	public void run() {
+    		if (mDevicesListAdapter.removeStaleDevices(SystemClock.elapsedRealtime())) {
+    			mDevicesListAdapter.notifyDataSetChanged();
+    		}
+    		mHandler.postDelayed(this, DEVICE_AGING_INTERVAL);
+    	}
+    };
 
 	/* add device to the current list of devices */
     private void handleFoundDevice(final BluetoothDevice device,
             final int rssi,
             final byte[] scanRecord)
 	{
-		// adding to the UI have to happen in UI thread
-		runOnUiThread(new Runnable() {
-			@Override
-			public void run() {
-				mDevicesListAdapter.addDevice(device, rssi, scanRecord);
+		// adding to the UI have to happen in UI thread - results are collected
+		// here and the list is updated by single refresh for all of them
+		synchronized (mPendingDevices) {
+			mPendingDevices.add(new FoundDevice(device, rssi, scanRecord));
+			if (mRefreshPosted) return;
+			mRefreshPosted = true;
+		}
+		long delay = mLastRefresh + LIST_REFRESH_INTERVAL - SystemClock.uptimeMillis();
+		mHandler.postDelayed(mRefreshList, Math.max(0, delay));
+	}
+
+	/* moves all pending results into the list and redraws it once */
+	private final Runnable mRefreshList = new Runnable() {
+		private final ArrayList<FoundDevice> mDevices = new ArrayList<>();
+
+		@Override
+		public void run() {
+			synchronized (mPendingDevices) {
+				mDevices.addAll(mPendingDevices);
+				mPendingDevices.clear();
+				mRefreshPosted = false;
+			}
+			boolean added = false;
+			for (int i = 0; i < mDevices.size(); i++) {
+				FoundDevice found = mDevices.get(i);
+				added |= mDevicesListAdapter.addDevice(found.device, found.rssi, found.scanRecord);
+			}
+			mDevices.clear();
+			boolean moved = mDevicesListAdapter.sortByProximity();
+			// rebuild whole list only when new device appeared or the order changed,
+			// otherwise just redraw rows with updated signal strength
+			if (added || moved) {
 				mDevicesListAdapter.notifyDataSetChanged();
 			}
-		});
-	}	
+			else {
+				mDevicesListAdapter.refreshChangedRows(getListView());
+			}
+			mLastRefresh = SystemClock.uptimeMillis();
+		}
+	};
 
     private void btDisabled() {
     	Toast.makeText(this, "Sorry, BT has to be turned ON for us to work!", Toast.LENGTH_LONG).show();
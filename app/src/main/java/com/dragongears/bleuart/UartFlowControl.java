@@ -0,0 +1,93 @@
+package com.dragongears.bleuart;
+
+/* optional credit based flow control of the UART. Every packet in both
+ * directions starts with a header byte:
+ *   0x00 - data, the rest of the packet is UART payload
+ *   0x01 - credit grant, the next byte is how many more data packets the receiver takes
+ * Data packet may be sent only while the sender holds a credit for it. The
+ * peripheral grants credits to us, we grant credits to it as our receive
+ * buffer drains, so neither side can overrun the other's buffer.
+ * Not thread safe - used only from the wrapper's event loop */
+class UartFlowControl {
+
+    static final byte TYPE_DATA   = 0x00;
+    static final byte TYPE_CREDIT = 0x01;
+    static final int HEADER_SIZE = 1;
+    /* single grant carries at most this many credits */
+    static final int MAX_GRANT = 255;
+
+    /* data packets we may still send */
+    private int mTxCredits = 0;
+    /* credits granted to the peer which it didn't use yet */
+    private int mRxCredits = 0;
+
+    /* packet arrays indexed by their length; the stack copies the value while
+     * the write is being issued, so they can be reused for following packets */
+    private byte[][] mPackets = new byte[UartWriteQueue.DEFAULT_CHUNK_SIZE + HEADER_SIZE + 1][];
+    private final byte[] mGrant = new byte[HEADER_SIZE + 1];
+
+    /* forgets all credits - both sides start from zero on every connection */
+    void reset() {
+        mTxCredits = 0;
+        mRxCredits = 0;
+    }
+
+    boolean canSend() { return mTxCredits > 0; }
+    int getTxCredits() { return mTxCredits; }
+    int getRxCredits() { return mRxCredits; }
+
+    /* returns <chunk> prefixed with data header, the array is valid only until the next call */
+    byte[] wrapData(byte[] chunk) {
+        int length = chunk.length + HEADER_SIZE;
+        if (mPackets.length <= length) mPackets = new byte[length + 1][];
+        byte[] packet = mPackets[length];
+        if (packet == null) {
+            packet = new byte[length];
+            mPackets[length] = packet;
+        }
+        packet[0] = TYPE_DATA;
+        System.arraycopy(chunk, 0, packet, HEADER_SIZE, chunk.length);
+        return packet;
+    }
+
+    /* data packet was confirmed written, its credit is used up */
+    void onDataSent() {
+        if (mTxCredits > 0) mTxCredits--;
+    }
+
+    /* handles received packet - returns offset of UART payload in data packet,
+     * -1 for packets carrying no data (credits they grant are already counted) */
+    int onPacket(byte[] packet) {
+        if (packet.length < HEADER_SIZE) return -1;
+        switch (packet[0]) {
+            case TYPE_DATA:
+                if (mRxCredits > 0) mRxCredits--;
+                return HEADER_SIZE;
+            case TYPE_CREDIT:
+                if (packet.length > HEADER_SIZE) mTxCredits += packet[HEADER_SIZE] & 0xFF;
+                return -1;
+            default:
+                // unknown packet type, possibly from newer firmware - skip it
+                return -1;
+        }
+    }
+
+    /* credits worth granting now when the receive buffer has room for <capacity> more
+     * data packets; grants go in batches, once the peer used up half of what it may send */
+    int creditsToGrant(int capacity) {
+        if (mRxCredits > capacity / 2) return 0;
+        return Math.max(0, Math.min(MAX_GRANT, capacity - mRxCredits));
+    }
+
+    /* returns credit grant packet, the array is valid only until the next call */
+    byte[] grantPacket(int credits) {
+        mGrant[0] = TYPE_CREDIT;
+        mGrant[HEADER_SIZE] = (byte) credits;
+        return mGrant;
+    }
+
+    /* grant of <credits> was written to the peer */
+    void onGranted(int credits) {
+        mRxCredits += credits;
+    }
+}
@@ -0,0 +1,144 @@
+package com.dragongears.bleuart;
+
+/* splits received UART byte stream into messages. Framer takes bytes from
+ * the ring buffer only when whole message is available and decodes it into
+ * the supplied array, so nothing is allocated per message */
+interface UartFramer {
+
+	/* moves next complete message from <ring> into <out> and returns its length,
+	 * returns -1 (and leaves partial message buffered) if there is none yet */
+	int nextFrame(ByteRingBuffer ring, byte[] out);
+
+	/* forgets any state kept about partially received message */
+	void reset();
+
+	/* messages terminated by '\n', optional '\r' before it is stripped */
+	class Newline implements UartFramer {
+		/* number of bytes already searched for delimiter */
+		private int mScanned = 0;
+
+		@Override
+		public int nextFrame(ByteRingBuffer ring, byte[] out) {
+			int end = ring.indexOf((byte) '\n', mScanned);
+			if (end < 0) {
+				mScanned = ring.size();
+				return -1;
+			}
+			mScanned = 0;
+
+			ring.read(out, 0, end);
+			ring.skip(1);
+			if (end > 0 && out[end - 1] == '\r') end--;
+			return end;
+		}
+
+		@Override
+		public void reset() {
+			mScanned = 0;
+		}
+	}
+
+	/* messages preceded by 1 or 2 bytes (little endian) long length field */
+	class LengthPrefix implements UartFramer {
+		private final int mHeaderSize;
+
+		LengthPrefix(int headerSize) {
+			if (headerSize != 1 && headerSize != 2) throw new IllegalArgumentException("Length field has to be 1 or 2 bytes long");
+			mHeaderSize = headerSize;
+		}
+
+		@Override
+		public int nextFrame(ByteRingBuffer ring, byte[] out) {
+			if (ring.size() < mHeaderSize) return -1;
+
+			int length = ring.peek(0) & 0xFF;
+			if (mHeaderSize == 2) length |= (ring.peek(1) & 0xFF) << 8;
+			if (ring.size() < mHeaderSize + length) return -1;
+
+			ring.skip(mHeaderSize);
+			ring.read(out, 0, length);
+			return length;
+		}
+
+		@Override
+		public void reset() {
+		}
+	}
+
+	/* SLIP (RFC 1055) - messages terminated by END, END and ESC inside escaped */
+	class Slip implements UartFramer {
+		private static final byte END     = (byte) 0xC0;
+		private static final byte ESC     = (byte) 0xDB;
+		private static final byte ESC_END = (byte) 0xDC;
+		private static final byte ESC_ESC = (byte) 0xDD;
+
+		private int mScanned = 0;
+
+		@Override
+		public int nextFrame(ByteRingBuffer ring, byte[] out) {
+			while (true) {
+				int end = ring.indexOf(END, mScanned);
+				if (end < 0) {
+					mScanned = ring.size();
+					return -1;
+				}
+				mScanned = 0;
+
+				int length = 0;
+				for (int i = 0; i < end; i++) {
+					byte b = ring.peek(i);
+					if (b == ESC && i + 1 < end) {
+						b = ring.peek(++i);
+						if (b == ESC_END) b = END;
+						else if (b == ESC_ESC) b = ESC;
+					}
+					out[length++] = b;
+				}
+				ring.skip(end + 1);
+
+				// senders usually put END also in front of each message, ignore empty ones
+				if (length > 0) return length;
+			}
+		}
+
+		@Override
+		public void reset() {
+			mScanned = 0;
+		}
+	}
+
+	/* COBS - zero free encoded messages terminated by 0x00 */
+	class Cobs implements UartFramer {
+		private int mScanned = 0;
+
+		@Override
+		public int nextFrame(ByteRingBuffer ring, byte[] out) {
+			while (true) {
+				int end = ring.indexOf((byte) 0, mScanned);
+				if (end < 0) {
+					mScanned = ring.size();
+					return -1;
+				}
+				mScanned = 0;
+
+				int length = 0;
+				int i = 0;
+				while (i < end) {
+					int code = ring.peek(i++) & 0xFF;
+					for (int j = 1; j < code && i < end; j++) {
+						out[length++] = ring.peek(i++);
+					}
+					if (code != 0xFF && i < end) out[length++] = 0;
+				}
+				ring.skip(end + 1);
+
+				if (length > 0) return length;
+			}
+		}
+
+		@Override
+		public void reset() {
+			mScanned = 0;
+		}
+	}
+}
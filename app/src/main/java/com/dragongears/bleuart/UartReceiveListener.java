@@ -0,0 +1,15 @@
+package com.dragongears.bleuart;
+
+/* receives complete messages reassembled from UART RX notifications */
+interface UartReceiveListener {
+
+	/* <frame> is reused for following messages - its first <length> bytes
+	 * are valid only until this method returns */
+	void onFrameReceived(final byte[] frame, final int length);
+
+	/* define Null Adapter class for that interface */
+	class Null implements UartReceiveListener {
+		@Override
+		public void onFrameReceived(byte[] frame, int length) {}
+	}
+}
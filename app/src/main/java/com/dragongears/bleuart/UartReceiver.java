@@ -0,0 +1,72 @@
+package com.dragongears.bleuart;
+
+/* receive path of the UART: notification payloads are appended to a ring
+ * buffer allocated up front and the framer cuts whole messages out of it */
+class UartReceiver {
+
+    /* default size of the receive buffer - also the longest message we can reassemble */
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private final ByteRingBuffer mRing;
+    private final byte[] mFrame;
+    private UartFramer mFramer = new UartFramer.Newline();
+    private UartReceiveListener mListener = new UartReceiveListener.Null();
+
+    /* number of bytes thrown away because message didn't fit into the buffer */
+    private long mDroppedBytes = 0;
+
+    UartReceiver(int capacity) {
+        mRing = new ByteRingBuffer(capacity);
+        mFrame = new byte[mRing.capacity()];
+    }
+
+    synchronized void setFramer(UartFramer framer) {
+        mFramer = framer;
+        mFramer.reset();
+        mRing.clear();
+    }
+
+    synchronized void setListener(UartReceiveListener listener) {
+        mListener = (listener != null) ? listener : new UartReceiveListener.Null();
+    }
+
+    /* feeds payload of single notification */
+    synchronized void onData(byte[] data) {
+        if (data == null) return;
+        onData(data, 0, data.length);
+    }
+
+    /* feeds <length> bytes of <data> starting at <offset> */
+    synchronized void onData(byte[] data, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            offset += mRing.write(data, offset, end - offset);
+            deliverFrames();
+
+            if (offset < end && mRing.free() == 0) {
+                // buffer is full and still holds no complete message - it will
+                // never fit, so drop it and resynchronize on the next one
+                mDroppedBytes += mRing.size();
+                mRing.clear();
+                mFramer.reset();
+            }
+        }
+    }
+
+    private void deliverFrames() {
+        int length;
+        while ((length = mFramer.nextFrame(mRing, mFrame)) >= 0) {
+            mListener.onFrameReceived(mFrame, length);
+        }
+    }
+
+    synchronized void clear() {
+        mRing.clear();
+        mFramer.reset();
+    }
+
+    synchronized long getDroppedBytes() { return mDroppedBytes; }
+
+    /* bytes which can be received without dropping anything */
+    synchronized int getFree() { return mRing.free(); }
+}
@@ -0,0 +1,357 @@
+package com.dragongears.bleuart;
+
+import java.util.List;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Binder;
+import android.os.Build;
+import android.os.IBinder;
+import android.preference.PreferenceManager;
+
+/* owns the UART link to one peripheral - the BleWrapper with its GATT client,
+ * TX queue and RX buffer - so the connection outlives the activity showing it.
+ * Activities bind to the service and attach() their callbacks while visible;
+ * frames received meanwhile nobody is attached are kept in a backlog and
+ * handed over (on the link's event loop thread) after the next attach().
+ * While a link is open the service runs in foreground, so it isn't killed
+ * together with the activities in background.
+ * Public methods are meant to be called from the UI thread */
+public class UartService extends Service implements BleWrapperUiCallbacks, UartReceiveListener {
+
+    private static final String NOTIFICATION_CHANNEL = "uart_link";
+    private static final int NOTIFICATION_ID = 1;
+
+    /* how many bytes of received frames are kept while no activity is attached;
+     * the oldest frames are dropped when it overflows */
+    static final int RX_BACKLOG_SIZE = 64 * 1024;
+    /* every frame in backlog is prefixed with its length */
+    private static final int FRAME_HEADER_SIZE = 2;
+
+    /* last connected peripheral is remembered, so it can be connected again without scanning */
+    private static final String PREF_LAST_ADDRESS = "pref_last_address";
+    private static final String PREF_LAST_NAME    = "pref_last_name";
+    private static final String PREF_AUTO_CONNECT = "pref_auto_connect";
+
+    class LocalBinder extends Binder {
+        UartService getService() { return UartService.this; }
+    }
+
+    private final IBinder mBinder = new LocalBinder();
+    private static final BleWrapperUiCallbacks NULL_CALLBACK = new BleWrapperUiCallbacks.Null();
+
+    private BleWrapper mLink = null;
+    private String mAddress = null;
+    private String mName = null;
+
+    /* attached activity, callbacks come from the link's event loop thread */
+    private volatile BleWrapperUiCallbacks mClient = NULL_CALLBACK;
+    /* guarded by mBacklog, null while nobody is attached. Frames go to mReceiveListener
+     * only once the backlog was replayed to it, until then to the backlog */
+    private UartReceiveListener mAttachedListener = null;
+    private UartReceiveListener mReceiveListener = null;
+    private final ByteRingBuffer mBacklog = new ByteRingBuffer(RX_BACKLOG_SIZE);
+    private final byte[] mFrame = new byte[UartReceiver.DEFAULT_CAPACITY];
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(NOTIFICATION_CHANNEL,
+                    getString(R.string.uart_service_channel), NotificationManager.IMPORTANCE_LOW);
+            getNotificationManager().createNotificationChannel(channel);
+        }
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // link can't be restored after the process was killed, so don't ask to be restarted
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        closeLink();
+        super.onDestroy();
+    }
+
+    /* opens link to the peripheral, or keeps the one already open to it; returns
+     * false if Bluetooth isn't available or the address is not valid */
+    boolean connect(String address, String name) {
+        if (mLink != null && address.equals(mAddress)) {
+            if (!mLink.isConnected()) mLink.connect(address);
+            return true;
+        }
+
+        closeLink();
+        BleWrapper link = new BleWrapper(this, this);
+        link.setAutoConnect(isAutoConnect());
+        if (!link.initialize() || !link.connect(address)) {
+            link.close();
+            return false;
+        }
+        link.setReceiveListener(this);
+        mLink = link;
+        mAddress = address;
+        mName = name;
+        getPreferences(this).edit()
+                .putString(PREF_LAST_ADDRESS, address)
+                .putString(PREF_LAST_NAME, name)
+                .apply();
+
+        // started (not only bound) service survives the activity unbinding from it
+        startService(new Intent(this, UartService.class));
+        startForeground(NOTIFICATION_ID, buildNotification(getString(R.string.uart_service_connecting)));
+        return true;
+    }
+
+    /* disconnects, the link stays open for connecting again */
+    void disconnect() {
+        if (mLink != null) mLink.disconnect();
+    }
+
+    /* closes the link and lets the service stop once nobody is bound to it */
+    void shutdown() {
+        closeLink();
+        stopForeground(true);
+        stopSelf();
+    }
+
+    /* with autoConnect the link is (re)established in background whenever the peripheral
+     * is in range; takes effect right away for a lost link, for a new one on next connect */
+    void setAutoConnect(boolean enabled) {
+        getPreferences(this).edit().putBoolean(PREF_AUTO_CONNECT, enabled).apply();
+        if (mLink != null) mLink.setAutoConnect(enabled);
+    }
+
+    boolean isAutoConnect() {
+        return getPreferences(this).getBoolean(PREF_AUTO_CONNECT, false);
+    }
+
+    /* address of the last connected peripheral, null if there was none */
+    static String getLastAddress(Context context) {
+        return getPreferences(context).getString(PREF_LAST_ADDRESS, null);
+    }
+
+    static String getLastName(Context context) {
+        return getPreferences(context).getString(PREF_LAST_NAME, null);
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    /* link the service currently holds, null if none */
+    BleWrapper getLink() { return mLink; }
+
+    String getAddress() { return mAddress; }
+
+    boolean isConnected() { return mLink != null && mLink.isConnected(); }
+
+    /* <callbacks> and <listener> get everything the link reports from now on (from the
+     * link's event loop thread); frames received while detached are passed first */
+    void attach(BleWrapperUiCallbacks callbacks, UartReceiveListener listener) {
+        mClient = (callbacks != null) ? callbacks : NULL_CALLBACK;
+        synchronized (mBacklog) {
+            mAttachedListener = listener;
+            // without a link there is no backlog and nothing to keep order with
+            if (mLink == null) mReceiveListener = listener;
+        }
+        // replayed on the thread frames arrive on, so frames received meanwhile queue
+        // up behind the backlog and the listener sees everything in order
+        if (mLink != null && listener != null) mLink.post(mReplayBacklog);
+        if (mLink != null) {
+            mLink.setRssiPolling(true, BleWrapper.RSSI_UPDATE_TIME_INTERVAL, BleWrapper.RSSI_MAX_UPDATE_TIME_INTERVAL);
+        }
+    }
+
+    /* nobody shows the link anymore, received frames are buffered until next attach() */
+    void detach() {
+        mClient = NULL_CALLBACK;
+        synchronized (mBacklog) {
+            mAttachedListener = null;
+            mReceiveListener = null;
+        }
+        // RSSI is only displayed, no need to keep polling it in background
+        if (mLink != null) mLink.setRssiPolling(false, BleWrapper.RSSI_UPDATE_TIME_INTERVAL, BleWrapper.RSSI_MAX_UPDATE_TIME_INTERVAL);
+    }
+
+    private void closeLink() {
+        if (mLink == null) return;
+        mLink.disconnect();
+        mLink.close();
+        mLink = null;
+        mAddress = null;
+        synchronized (mBacklog) {
+            mBacklog.clear();
+        }
+    }
+
+    @Override
+    public void onFrameReceived(byte[] frame, int length) {
+        synchronized (mBacklog) {
+            if (mReceiveListener != null) {
+                mReceiveListener.onFrameReceived(frame, length);
+                return;
+            }
+            // make room by dropping the oldest frames
+            while (mBacklog.free() < length + FRAME_HEADER_SIZE && !mBacklog.isEmpty()) {
+                mBacklog.skip(FRAME_HEADER_SIZE + frameLength());
+            }
+            if (mBacklog.free() < length + FRAME_HEADER_SIZE) return;
+            mFrame[0] = (byte) (length >> 8);
+            mFrame[1] = (byte) length;
+            mBacklog.write(mFrame, 0, FRAME_HEADER_SIZE);
+            mBacklog.write(frame, 0, length);
+        }
+    }
+
+    private final Runnable mReplayBacklog = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mBacklog) {
+                // detached meanwhile
+                if (mAttachedListener == null) return;
+                replayBacklog(mAttachedListener);
+                mReceiveListener = mAttachedListener;
+            }
+        }
+    };
+
+    /* called with mBacklog locked */
+    private void replayBacklog(UartReceiveListener listener) {
+        while (!mBacklog.isEmpty()) {
+            int length = frameLength();
+            mBacklog.skip(FRAME_HEADER_SIZE);
+            if (length > mFrame.length) {
+                mBacklog.skip(length);
+                continue;
+            }
+            mBacklog.read(mFrame, 0, length);
+            listener.onFrameReceived(mFrame, length);
+        }
+    }
+
+    /* length of the oldest frame in backlog */
+    private int frameLength() {
+        return ((mBacklog.peek(0) & 0xFF) << 8) | (mBacklog.peek(1) & 0xFF);
+    }
+
+    private NotificationManager getNotificationManager() {
+        return (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+    }
+
+    @SuppressWarnings("deprecation")
+    private Notification buildNotification(String text) {
+        Intent intent = new Intent(this, PeripheralActivity.class);
+        intent.putExtra(PeripheralActivity.EXTRAS_DEVICE_NAME, mName);
+        intent.putExtra(PeripheralActivity.EXTRAS_DEVICE_ADDRESS, mAddress);
+        intent.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        PendingIntent content = PendingIntent.getActivity(this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        Notification.Builder builder = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O)
+                ? new Notification.Builder(this, NOTIFICATION_CHANNEL)
+                : new Notification.Builder(this);
+        return builder.setSmallIcon(R.drawable.ic_launcher)
+                .setContentTitle((mName != null) ? mName : mAddress)
+                .setContentText(text)
+                .setContentIntent(content)
+                .setOngoing(true)
+                .build();
+    }
+
+    private void showState(String text) {
+        if (mLink == null) return;
+        getNotificationManager().notify(NOTIFICATION_ID, buildNotification(text));
+    }
+
+    /* callbacks of the link are passed to the attached activity */
+
+    @Override
+    public void uiDeviceFound(BluetoothDevice device, int rssi, byte[] record) {}
+
+    @Override
+    public void uiDeviceConnected(BluetoothGatt gatt, BluetoothDevice device) {
+        showState(getString(R.string.uart_service_connected));
+        mClient.uiDeviceConnected(gatt, device);
+    }
+
+    @Override
+    public void uiDeviceDisconnected(BluetoothGatt gatt, BluetoothDevice device) {
+        showState(getString(R.string.uart_service_disconnected));
+        mClient.uiDeviceDisconnected(gatt, device);
+    }
+
+    @Override
+    public void uiAvailableServices(BluetoothGatt gatt, BluetoothDevice device, List<BluetoothGattService> services) {
+        mClient.uiAvailableServices(gatt, device, services);
+    }
+
+    @Override
+    public void uiCharacteristicForService(BluetoothGatt gatt, BluetoothDevice device,
+            BluetoothGattService service, List<BluetoothGattCharacteristic> chars) {
+        mClient.uiCharacteristicForService(gatt, device, service, chars);
+    }
+
+    @Override
+    public void uiNewValueForCharacteristic(BluetoothGatt gatt, BluetoothDevice device,
+            BluetoothGattService service, BluetoothGattCharacteristic ch, String strValue,
+            int intValue, byte[] rawValue, String timestamp) {
+        mClient.uiNewValueForCharacteristic(gatt, device, service, ch, strValue, intValue, rawValue, timestamp);
+    }
+
+    @Override
+    public void uiGotNotification(BluetoothGatt gatt, BluetoothDevice device,
+            BluetoothGattService service, BluetoothGattCharacteristic characteristic) {
+        mClient.uiGotNotification(gatt, device, service, characteristic);
+    }
+
+    @Override
+    public void uiSuccessfulWrite(BluetoothGatt gatt, BluetoothDevice device,
+            BluetoothGattService service, BluetoothGattCharacteristic ch, String description) {
+        mClient.uiSuccessfulWrite(gatt, device, service, ch, description);
+    }
+
+    @Override
+    public void uiFailedWrite(BluetoothGatt gatt, BluetoothDevice device,
+            BluetoothGattService service, BluetoothGattCharacteristic ch, String description) {
+        mClient.uiFailedWrite(gatt, device, service, ch, description);
+    }
+
+    @Override
+    public void uiNewRssiAvailable(BluetoothGatt gatt, BluetoothDevice device, int rssi) {
+        mClient.uiNewRssiAvailable(gatt, device, rssi);
+    }
+
+    @Override
+    public void uiWriteProgress(BluetoothGatt gatt, BluetoothDevice device,
+            long bytesSent, long bytesTotal, int bytesPerSecond) {
+        mClient.uiWriteProgress(gatt, device, bytesSent, bytesTotal, bytesPerSecond);
+    }
+
+    @Override
+    public void uiPhyUpdated(BluetoothGatt gatt, BluetoothDevice device, int txPhy, int rxPhy, int status) {
+        mClient.uiPhyUpdated(gatt, device, txPhy, rxPhy, status);
+    }
+
+    @Override
+    public void uiReconnecting(BluetoothGatt gatt, BluetoothDevice device, int attempt, long delay) {
+        showState(getString(R.string.uart_service_reconnecting));
+        mClient.uiReconnecting(gatt, device, attempt, delay);
+    }
+}
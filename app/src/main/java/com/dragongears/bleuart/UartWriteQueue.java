@@ -0,0 +1,145 @@
+package com.dragongears.bleuart;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+import android.os.SystemClock;
+
+/* queue of outgoing UART payloads. Payloads are sliced into chunks no longer
+ * than the characteristic payload size and handed out one by one; the queue
+ * also keeps track of chunks which were issued but not yet confirmed by the
+ * stack, so progress and throughput of the whole transfer can be reported */
+class UartWriteQueue {
+
+    /* default payload of single ATT write (23 bytes MTU - 3 bytes header) */
+    static final int DEFAULT_CHUNK_SIZE = 20;
+    /* upper limit for number of chunks issued without confirmation */
+    static final int MAX_WINDOW = 32;
+
+    /* single queued payload - text payloads are never split inside a UTF-8 sequence */
+    private static class Payload {
+        final ByteBuffer data;
+        final boolean utf8;
+
+        Payload(ByteBuffer data, boolean utf8) {
+            this.data = data;
+            this.utf8 = utf8;
+        }
+    }
+
+    private final ArrayDeque<Payload> mPending = new ArrayDeque<>();
+    private final int[] mInFlight = new int[MAX_WINDOW];
+    private int mInFlightHead = 0;
+    private int mInFlightCount = 0;
+
+    private final Utf8Chunker mChunker = new Utf8Chunker();
+    private int mChunkSize = DEFAULT_CHUNK_SIZE;
+    /* chunk arrays indexed by their length; the stack copies the value while
+     * the write is being issued, so they can be reused for following chunks */
+    private byte[][] mChunkBuffers = new byte[DEFAULT_CHUNK_SIZE + 1][];
+
+    /* statistics of the current transfer (everything queued since the queue was last idle) */
+    private long mBytesTotal = 0;
+    private long mBytesAcked = 0;
+    private long mStartTime = 0;
+
+    /* adds binary payload to the end of the queue */
+    synchronized void add(byte[] data) {
+        if (data == null || data.length == 0) return;
+        add(ByteBuffer.wrap(data), false);
+    }
+
+    /* adds text to the end of the queue, it is sent UTF-8 encoded */
+    synchronized void addText(String text) {
+        if (text == null || text.isEmpty()) return;
+        add(mChunker.encode(text), true);
+    }
+
+    private void add(ByteBuffer data, boolean utf8) {
+        if (isIdle()) {
+            mBytesTotal = 0;
+            mBytesAcked = 0;
+            mStartTime = SystemClock.elapsedRealtime();
+        }
+        mPending.addLast(new Payload(data, utf8));
+        mBytesTotal += data.remaining();
+    }
+
+    /* returns next chunk to be written without removing it from the queue,
+     * null if there is nothing left to send. Returned array is only valid
+     * until the next call */
+    synchronized byte[] peekChunk() {
+        Payload head = mPending.peekFirst();
+        if (head == null) return null;
+
+        ByteBuffer data = head.data;
+        int length = head.utf8 ? Utf8Chunker.sliceLength(data, mChunkSize)
+                               : Math.min(mChunkSize, data.remaining());
+
+        byte[] chunk = mChunkBuffers[length];
+        if (chunk == null) {
+            chunk = new byte[length];
+            mChunkBuffers[length] = chunk;
+        }
+        int position = data.position();
+        data.get(chunk);
+        data.position(position);
+        return chunk;
+    }
+
+    /* marks chunk returned by peekChunk() as handed over to the stack */
+    synchronized void commitChunk(int length) {
+        Payload head = mPending.peekFirst();
+        if (head == null) return;
+        head.data.position(head.data.position() + length);
+        if (!head.data.hasRemaining()) mPending.removeFirst();
+
+        mInFlight[(mInFlightHead + mInFlightCount) % MAX_WINDOW] = length;
+        mInFlightCount++;
+    }
+
+    /* the stack confirmed the oldest chunk in flight */
+    synchronized void ackChunk() {
+        if (mInFlightCount == 0) return;
+        mBytesAcked += mInFlight[mInFlightHead];
+        mInFlightHead = (mInFlightHead + 1) % MAX_WINDOW;
+        mInFlightCount--;
+    }
+
+    /* drops everything - both pending payloads and chunks in flight */
+    synchronized void clear() {
+        mPending.clear();
+        mInFlightHead = 0;
+        mInFlightCount = 0;
+        mBytesTotal = 0;
+        mBytesAcked = 0;
+    }
+
+    /* true if there is something not yet handed out by peekChunk()/commitChunk() */
+    synchronized boolean hasPending() {
+        return !mPending.isEmpty();
+    }
+
+    synchronized boolean isIdle() {
+        return mPending.isEmpty() && mInFlightCount == 0;
+    }
+
+    synchronized int getInFlightCount() { return mInFlightCount; }
+    synchronized long getBytesTotal()   { return mBytesTotal; }
+    synchronized long getBytesAcked()   { return mBytesAcked; }
+
+    /* average throughput of the current transfer in bytes per second */
+    synchronized int getBytesPerSecond() {
+        long elapsed = SystemClock.elapsedRealtime() - mStartTime;
+        if (elapsed <= 0) return 0;
+        return (int) (mBytesAcked * 1000 / elapsed);
+    }
+
+    synchronized void setChunkSize(int size) {
+        if (size <= 0) return;
+        mChunkSize = size;
+        if (mChunkBuffers.length < size + 1) mChunkBuffers = new byte[size + 1][];
+    }
+
+    synchronized int getChunkSize() { return mChunkSize; }
+}
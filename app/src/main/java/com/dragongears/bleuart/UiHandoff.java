@@ -0,0 +1,51 @@
+package com.dragongears.bleuart;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/* passes values from the BLE event loop to the UI thread without locking.
+ * Values published faster than the UI takes them are coalesced - the UI
+ * gets only the latest one and at most one delivery is pending at a time,
+ * so a busy link can't flood the main thread's message queue */
+class UiHandoff<T> {
+
+    interface Receiver<T> {
+        /* called on the UI thread */
+        void onValue(T value);
+    }
+
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+    private final AtomicReference<T> mLatest = new AtomicReference<>();
+    private final AtomicBoolean mPosted = new AtomicBoolean(false);
+    private final Receiver<T> mReceiver;
+
+    UiHandoff(Receiver<T> receiver) {
+        mReceiver = receiver;
+    }
+
+    /* may be called from any thread, <value> must not be null */
+    void publish(T value) {
+        mLatest.set(value);
+        if (mPosted.compareAndSet(false, true)) mUiHandler.post(mDeliver);
+    }
+
+    /* drops value not delivered yet */
+    void cancel() {
+        mUiHandler.removeCallbacks(mDeliver);
+        mLatest.set(null);
+        mPosted.set(false);
+    }
+
+    private final Runnable mDeliver = new Runnable() {
+        @Override
+        public void run() {
+            // cleared before taking the value - anything published from now on gets a new delivery
+            mPosted.set(false);
+            T value = mLatest.getAndSet(null);
+            if (value != null) mReceiver.onValue(value);
+        }
+    };
+}
@@ -0,0 +1,47 @@
+package com.dragongears.bleuart;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/* passes values from the BLE event loop to the UI thread like UiHandoff, but
+ * none of them is dropped - values published faster than the UI takes them
+ * wait in the queue and are all delivered, in order, by the next delivery.
+ * Still at most one delivery is pending at a time */
+class UiQueue<T> {
+
+    interface Receiver<T> {
+        /* called on the UI thread for every value, in the order they were published */
+        void onValue(T value);
+        /* called on the UI thread after the last value of one delivery - redraw here, not per value */
+        void onDelivered();
+    }
+
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
+    private final ConcurrentLinkedQueue<T> mValues = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mPosted = new AtomicBoolean(false);
+    private final Receiver<T> mReceiver;
+
+    UiQueue(Receiver<T> receiver) {
+        mReceiver = receiver;
+    }
+
+    /* may be called from any thread, <value> must not be null */
+    void publish(T value) {
+        mValues.add(value);
+        if (mPosted.compareAndSet(false, true)) mUiHandler.post(mDeliver);
+    }
+
+    private final Runnable mDeliver = new Runnable() {
+        @Override
+        public void run() {
+            // cleared before taking the values - anything published from now on gets a new delivery
+            mPosted.set(false);
+            T value;
+            while ((value = mValues.poll()) != null) mReceiver.onValue(value);
+            mReceiver.onDelivered();
+        }
+    };
+}
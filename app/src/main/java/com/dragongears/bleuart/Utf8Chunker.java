@@ -0,0 +1,43 @@
+package com.dragongears.bleuart;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/* encodes outgoing text into UTF-8 exactly once and finds slice boundaries
+ * in the encoded bytes, so no packet ends in the middle of a multibyte sequence */
+class Utf8Chunker {
+
+    private final CharsetEncoder mEncoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /* encodes whole text into a new buffer ready for reading */
+    synchronized ByteBuffer encode(String text) {
+        try {
+            return mEncoder.encode(CharBuffer.wrap(text));
+        } catch (CharacterCodingException e) {
+            // can't happen - encoder replaces malformed input
+            return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /* returns how many bytes, starting at buffer's position and not more than
+     * <max>, can be sent without splitting a UTF-8 sequence */
+    static int sliceLength(ByteBuffer buf, int max) {
+        int start = buf.position();
+        int remaining = buf.limit() - start;
+        if (remaining <= max) return remaining;
+
+        // walk back over continuation bytes (10xxxxxx) to the lead byte of the sequence
+        int end = start + max;
+        while (end > start && (buf.get(end) & 0xC0) == 0x80) end--;
+
+        // slice too short to hold even single sequence - nothing better we can do
+        if (end == start) return max;
+        return end - start;
+    }
+}
@@ -0,0 +1,38 @@
+package com.dragongears.bleuart;
+
+import java.util.UUID;
+
+/* open addressing hash map keyed by full 128 bit UUID held as two longs -
+ * lookups neither build strings nor allocate UUID objects */
+class UuidObjectMap<V> extends OpenHashMap<V> {
+
+    UuidObjectMap() {
+        this(8);
+    }
+
+    UuidObjectMap(int expectedSize) {
+        super(expectedSize, true);
+    }
+
+    V get(UUID uuid) {
+        return get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    V get(long msb, long lsb) {
+        return find(msb, lsb);
+    }
+
+    void put(UUID uuid, V value) {
+        put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), value);
+    }
+
+    /* stores <value> (which must not be null) under the UUID, replacing previous one */
+    void put(long msb, long lsb, V value) {
+        store(msb, lsb, value);
+    }
+
+    /* removes value stored under the UUID and returns it, null if there was none */
+    V remove(UUID uuid) {
+        return delete(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+}
@@ -0,0 +1,162 @@
+package com.dragongears.bleuart;
+
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdvertisementParserTest {
+
+    private static final UUID UART_SERVICE = UUID.fromString("6E400001-B5A3-F393-E0A9-E50E24DCCA9E");
+    private static final UUID HEART_RATE_SERVICE = BleDefinedUUIDs.Service.HEART_RATE;
+    private static final UUID EDDYSTONE_SERVICE = UUID.fromString("0000feaa-0000-1000-8000-00805f9b34fb");
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) result[i] = (byte) values[i];
+        return result;
+    }
+
+    /* recorded advertisements, as ScanRecord.getBytes() returns them (padded to 31 bytes) */
+
+    /* Bluefruit UART peripheral: flags, 128 bit UART service, complete name */
+    private static final byte[] UART = bytes(
+            0x02, 0x01, 0x06,
+            0x11, 0x07, 0x9E, 0xCA, 0xDC, 0x24, 0x0E, 0xE5, 0xA9, 0xE0, 0x93, 0xF3, 0xA3, 0xB5, 0x01, 0x00, 0x40, 0x6E,
+            0x05, 0x09, 'U', 'A', 'R', 'T',
+            0x00, 0x00, 0x00, 0x00);
+
+    /* iBeacon: flags, Apple manufacturer data */
+    private static final byte[] IBEACON = bytes(
+            0x02, 0x01, 0x06,
+            0x1A, 0xFF, 0x4C, 0x00, 0x02, 0x15,
+            0xE2, 0xC5, 0x6D, 0xB5, 0xDF, 0xFB, 0x48, 0xD2, 0xB0, 0x60, 0xD0, 0xF5, 0xA7, 0x10, 0x96, 0xE0,
+            0x00, 0x01, 0x00, 0x02, 0xC5);
+
+    /* Eddystone URL: flags, 16 bit service list, service data */
+    private static final byte[] EDDYSTONE = bytes(
+            0x02, 0x01, 0x06,
+            0x03, 0x03, 0xAA, 0xFE,
+            0x0D, 0x16, 0xAA, 0xFE, 0x10, 0xEE, 0x03, 'g', 'o', 'o', 'g', 'l', 'e', 0x00,
+            0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00);
+
+    /* heart rate sensor: flags, incomplete 16 bit services, TX power, shortened name */
+    private static final byte[] HEART_RATE = bytes(
+            0x02, 0x01, 0x06,
+            0x05, 0x02, 0x0D, 0x18, 0x0F, 0x18,
+            0x02, 0x0A, 0xF4,
+            0x08, 0x08, 'P', 'o', 'l', 'a', 'r', ' ', 'H',
+            0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00);
+
+    private static final byte[][] RECORDED = { UART, IBEACON, EDDYSTONE, HEART_RATE };
+
+    @Test
+    public void uartPeripheral() {
+        AdvertisementParser parser = new AdvertisementParser();
+        assertTrue(parser.parse(UART));
+        assertEquals(3, parser.getStructureCount());
+        assertEquals(0x06, parser.getFlags());
+        assertTrue(parser.hasServiceUuid(UART_SERVICE));
+        assertFalse(parser.hasServiceUuid(HEART_RATE_SERVICE));
+        assertEquals("UART", parser.getName());
+        assertTrue(parser.nameEquals("UART"));
+        assertTrue(parser.nameStartsWith("UA"));
+        assertFalse(parser.nameStartsWith("UARTX"));
+        assertEquals(AdvertisementParser.NO_TX_POWER, parser.getTxPowerLevel());
+        assertEquals(AdvertisementParser.NO_MANUFACTURER, parser.getManufacturerId());
+    }
+
+    @Test
+    public void iBeacon() {
+        AdvertisementParser parser = new AdvertisementParser();
+        assertTrue(parser.parse(IBEACON));
+        assertEquals(0x004C, parser.getManufacturerId());
+        assertEquals(23, parser.getManufacturerDataLength());
+        assertEquals(0x02, IBEACON[parser.getManufacturerDataOffset()]);
+        assertTrue(parser.manufacturerDataMatches(0x004C, bytes(0x02, 0x15), null));
+        assertTrue(parser.manufacturerDataMatches(0x004C, bytes(0x02, 0x00), bytes(0xFF, 0x00)));
+        assertFalse(parser.manufacturerDataMatches(0x004C, bytes(0x03), null));
+        assertFalse(parser.manufacturerDataMatches(0x0059, null, null));
+        assertFalse(parser.hasName());
+        assertNull(parser.getName());
+    }
+
+    @Test
+    public void eddystone() {
+        AdvertisementParser parser = new AdvertisementParser();
+        assertTrue(parser.parse(EDDYSTONE));
+        assertTrue(parser.hasServiceUuid(EDDYSTONE_SERVICE));
+        int index = parser.findServiceData(EDDYSTONE_SERVICE);
+        assertTrue(index >= 0);
+        assertEquals(10, parser.getServiceDataLength(index));
+        // URL frame type
+        assertEquals(0x10, EDDYSTONE[parser.getServiceDataOffset(index)]);
+        assertEquals(-1, parser.findServiceData(HEART_RATE_SERVICE));
+    }
+
+    @Test
+    public void heartRateSensor() {
+        AdvertisementParser parser = new AdvertisementParser();
+        assertTrue(parser.parse(HEART_RATE));
+        assertTrue(parser.hasServiceUuid(HEART_RATE_SERVICE));
+        assertFalse(parser.hasServiceUuid(UART_SERVICE));
+        assertEquals(-12, parser.getTxPowerLevel());
+        assertEquals("Polar H", parser.getName());
+        assertTrue(parser.nameStartsWith("Polar"));
+    }
+
+    /* structures before the damaged one stay readable */
+    @Test
+    public void truncatedRecord() {
+        AdvertisementParser parser = new AdvertisementParser();
+        assertFalse(parser.parse(bytes(0x02, 0x01, 0x06, 0x09, 0x09, 'A', 'B')));
+        assertEquals(1, parser.getStructureCount());
+        assertEquals(0x06, parser.getFlags());
+        assertFalse(parser.hasName());
+
+        assertFalse(parser.parse(null));
+        assertEquals(0, parser.getStructureCount());
+    }
+
+    /* what BleWrapper does for every scan result */
+    private static int filter(AdvertisementParser parser, int iterations) {
+        int matches = 0;
+        for (int i = 0; i < iterations; i++) {
+            parser.parse(RECORDED[i & 3]);
+            if (parser.getFlags() != AdvertisementParser.NO_FLAGS) matches++;
+            if (parser.nameStartsWith("UA")) matches++;
+            if (parser.hasServiceUuid(UART_SERVICE)) matches++;
+            if (parser.hasServiceUuid(HEART_RATE_SERVICE)) matches++;
+            if (parser.getManufacturerId() == 0x004C) matches++;
+            if (parser.findServiceData(EDDYSTONE_SERVICE) >= 0) matches++;
+        }
+        return matches;
+    }
+
+    /* parsing and filtering must not create garbage, the scan callback runs for every
+     * advertisement heard. Timing lives in the JMH benchmarks of the benchmark module */
+    @Test
+    public void filteringDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) return;
+
+        AdvertisementParser parser = new AdvertisementParser();
+        // flags in every record, plus one match each for name prefix, UART service,
+        // heart rate service, Apple manufacturer data and Eddystone service data
+        assertEquals(100000 / 4 * (4 + 5), filter(parser, 100000));
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        filter(parser, 100000);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        // a few bytes for the measurement itself, nowhere near one object per iteration
+        assertTrue("allocated " + allocated + " bytes", allocated < 10000);
+    }
+}
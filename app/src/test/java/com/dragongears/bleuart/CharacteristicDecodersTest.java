@@ -0,0 +1,145 @@
+package com.dragongears.bleuart;
+
+import java.util.UUID;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CharacteristicDecodersTest {
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) result[i] = (byte) values[i];
+        return result;
+    }
+
+    private static UUID standard(int shortUuid) {
+        return UUID.fromString(String.format("%08x-0000-1000-8000-00805f9b34fb", shortUuid));
+    }
+
+    private static CharacteristicDecoder.Result decode(CharacteristicDecoders decoders, int shortUuid, byte[] value) {
+        CharacteristicDecoder.Result result = new CharacteristicDecoder.Result();
+        decoders.find(standard(shortUuid)).decode(value, result);
+        return result;
+    }
+
+    @Test
+    public void uintIsLittleEndian() {
+        assertEquals(0x34, CharacteristicDecoders.uint(bytes(0x34, 0x12), 0, 1));
+        assertEquals(0x1234, CharacteristicDecoders.uint(bytes(0x34, 0x12), 0, 2));
+        assertEquals(0xFFEE, CharacteristicDecoders.uint(bytes(0x00, 0xEE, 0xFF), 1, 2));
+        assertEquals(0x78563412, CharacteristicDecoders.uint(bytes(0x12, 0x34, 0x56, 0x78), 0, 4));
+        // bytes past the end of the value count as zero
+        assertEquals(0x12, CharacteristicDecoders.uint(bytes(0x12), 0, 4));
+    }
+
+    @Test
+    public void sintExtendsSign() {
+        assertEquals(-1, CharacteristicDecoders.sint(bytes(0xFF), 0, 1));
+        assertEquals(127, CharacteristicDecoders.sint(bytes(0x7F), 0, 1));
+        assertEquals(-2, CharacteristicDecoders.sint(bytes(0xFE, 0xFF), 0, 2));
+        assertEquals(-8388608, CharacteristicDecoders.sint(bytes(0x00, 0x00, 0x80), 0, 3));
+        assertEquals(-1, CharacteristicDecoders.sint(bytes(0xFF, 0xFF, 0xFF, 0xFF), 0, 4));
+    }
+
+    @Test
+    public void sfloat() {
+        // 0x0072 = 114, exponent 0
+        assertEquals(114.0, CharacteristicDecoders.sfloat(bytes(0x72, 0x00), 0), 0);
+        // exponent -1 (0xF), mantissa 365
+        assertEquals(36.5, CharacteristicDecoders.sfloat(bytes(0x6D, 0xF1), 0), 0);
+        // exponent 2, mantissa -1 (0xFFF)
+        assertEquals(-100.0, CharacteristicDecoders.sfloat(bytes(0xFF, 0x2F), 0), 0);
+        assertTrue(Double.isNaN(CharacteristicDecoders.sfloat(bytes(0xFF, 0x07), 0)));
+        assertTrue(Double.isNaN(CharacteristicDecoders.sfloat(bytes(0x00, 0x08), 0)));
+        assertEquals(Double.POSITIVE_INFINITY, CharacteristicDecoders.sfloat(bytes(0xFE, 0x07), 0), 0);
+        assertEquals(Double.NEGATIVE_INFINITY, CharacteristicDecoders.sfloat(bytes(0x02, 0x08), 0), 0);
+    }
+
+    @Test
+    public void float11073() {
+        // exponent -2, mantissa 3650
+        assertEquals(36.5, CharacteristicDecoders.float11073(bytes(0x42, 0x0E, 0x00, 0xFE), 0), 0);
+        // exponent 0, mantissa -5
+        assertEquals(-5.0, CharacteristicDecoders.float11073(bytes(0xFB, 0xFF, 0xFF, 0x00), 0), 0);
+        // exponent 3, mantissa 7
+        assertEquals(7000.0, CharacteristicDecoders.float11073(bytes(0x07, 0x00, 0x00, 0x03), 0), 0);
+        assertTrue(Double.isNaN(CharacteristicDecoders.float11073(bytes(0xFF, 0xFF, 0x7F, 0x00), 0)));
+        assertEquals(Double.POSITIVE_INFINITY, CharacteristicDecoders.float11073(bytes(0xFE, 0xFF, 0x7F, 0x00), 0), 0);
+        assertEquals(Double.NEGATIVE_INFINITY, CharacteristicDecoders.float11073(bytes(0x02, 0x00, 0x80, 0x00), 0), 0);
+    }
+
+    @Test
+    public void dateTime() {
+        byte[] value = bytes(0xE3, 0x07, 12, 31, 23, 59, 58);
+        assertEquals("2019-12-31 23:59:58", CharacteristicDecoders.dateTime(value, 0));
+        assertNull(CharacteristicDecoders.dateTime(bytes(0xE3, 0x07, 12), 0));
+    }
+
+    @Test
+    public void standardDecoders() {
+        CharacteristicDecoders decoders = new CharacteristicDecoders();
+
+        assertEquals("Nordic", decode(decoders, 0x2A29, "Nordic".getBytes()).strValue);
+        assertEquals(87, decode(decoders, 0x2A19, bytes(87)).intValue);
+
+        // uint8 and uint16 heart rate, depending on flags
+        assertEquals(72, decode(decoders, 0x2A37, bytes(0x00, 72)).intValue);
+        assertEquals(300, decode(decoders, 0x2A37, bytes(0x01, 0x2C, 0x01)).intValue);
+
+        CharacteristicDecoder.Result temperature = decode(decoders, 0x2A1C, bytes(0x00, 0x42, 0x0E, 0x00, 0xFE));
+        assertEquals(37, temperature.intValue);
+        assertEquals("36.5 \u00B0C", temperature.strValue);
+
+        CharacteristicDecoder.Result pressure = decode(decoders, 0x2A35, bytes(0x00, 0x78, 0x00, 0x50, 0x00, 0x5D, 0x00));
+        assertEquals(120, pressure.intValue);
+        assertEquals("120.0/80.0 mmHg", pressure.strValue);
+
+        assertEquals(-1250, decode(decoders, 0x2A6E, bytes(0x1E, 0xFB)).intValue);
+        assertEquals("-12.5 \u00B0C", decode(decoders, 0x2A6E, bytes(0x1E, 0xFB)).strValue);
+        assertEquals("45.67% humidity", decode(decoders, 0x2A6F, bytes(0xD7, 0x11)).strValue);
+        assertEquals(2019, decode(decoders, 0x2A08, bytes(0xE3, 0x07, 1, 2, 3, 4, 5)).intValue);
+    }
+
+    @Test
+    public void shortValuesAreIgnored() {
+        CharacteristicDecoders decoders = new CharacteristicDecoders();
+        CharacteristicDecoder.Result result = decode(decoders, 0x2A1C, bytes(0x00, 0x42));
+        assertEquals(0, result.intValue);
+        assertNull(result.strValue);
+    }
+
+    @Test
+    public void unknownCharacteristicsFallBack() {
+        CharacteristicDecoders decoders = new CharacteristicDecoders();
+        UUID vendor = UUID.fromString("6E400003-B5A3-F393-E0A9-E50E24DCCA9E");
+        assertTrue(decoders.find(vendor) instanceof CharacteristicDecoder.Generic);
+        assertTrue(decoders.find(standard(0x2ABC)) instanceof CharacteristicDecoder.Generic);
+
+        CharacteristicDecoder.Result result = new CharacteristicDecoder.Result();
+        decoders.find(vendor).decode(bytes('O', 'K'), result);
+        assertEquals(0x4B4F, result.intValue);
+        assertEquals("OK", result.strValue);
+
+        CharacteristicDecoder fallback = new CharacteristicDecoder.Utf8String();
+        decoders.setFallback(fallback);
+        assertSame(fallback, decoders.find(vendor));
+    }
+
+    @Test
+    public void registeredDecodersWin() {
+        CharacteristicDecoders decoders = new CharacteristicDecoders();
+        UUID vendor = UUID.fromString("6E400003-B5A3-F393-E0A9-E50E24DCCA9E");
+        CharacteristicDecoder custom = new CharacteristicDecoder.BatteryLevel();
+        decoders.register(vendor, custom);
+        assertSame(custom, decoders.find(vendor));
+
+        // full UUID on the Bluetooth base lands in the standard table
+        decoders.register(standard(0x2ABC), custom);
+        assertSame(custom, decoders.find(standard(0x2ABC)));
+    }
+}
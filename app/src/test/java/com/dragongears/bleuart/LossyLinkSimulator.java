@@ -0,0 +1,172 @@
+package com.dragongears.bleuart;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/* two ReliableTransport instances connected by simulated link which loses,
+ * corrupts and duplicates packets. Time is simulated in 1 ms steps; in every
+ * step each side may send PACKETS_PER_MS packets, which arrive LATENCY ms
+ * later in the order they were sent. Seeded, so every run is the same */
+class LossyLinkSimulator {
+
+    /* one end of the link */
+    final class Endpoint implements ReliableTransport.Link {
+        final ReliableTransport transport = new ReliableTransport(this);
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final ArrayDeque<Packet> outgoing = new ArrayDeque<>();
+        long timerAt = -1;
+        long bytesAcked = 0;
+        int failures = 0;
+        long packetsSent = 0;
+        /* endpoint which never sends anything, like peer not speaking the protocol */
+        boolean mute = false;
+
+        private byte[] mData = new byte[0];
+        private int mOffered = 0;
+
+        /* data this side sends to the other one */
+        void send(byte[] data) {
+            mData = data;
+            mOffered = 0;
+            bytesAcked = 0;
+        }
+
+        boolean isSent() {
+            return bytesAcked == mData.length;
+        }
+
+        private void offer() {
+            int chunk = transport.getMaxDataLength();
+            while (mOffered < mData.length && transport.hasWindowSpace()) {
+                int length = Math.min(chunk, mData.length - mOffered);
+                transport.offer(mData, mOffered, length);
+                mOffered += length;
+            }
+        }
+
+        @Override
+        public void onPacketReady() {
+            // the simulator polls every step anyway
+        }
+
+        @Override
+        public void onReceive(byte[] data, int offset, int length) {
+            received.write(data, offset, length);
+        }
+
+        @Override
+        public void onAcked(int length) {
+            bytesAcked += length;
+        }
+
+        @Override
+        public void onFailed() {
+            failures++;
+            // data not acknowledged are gone, the rest is not sent either
+            mOffered = mData.length;
+            bytesAcked = mData.length;
+        }
+
+        @Override
+        public void schedule(long delay) {
+            timerAt = (delay < 0) ? -1 : mNow + delay;
+        }
+    }
+
+    private static final class Packet {
+        final long arrival;
+        final byte[] data;
+
+        Packet(long arrival, byte[] data) {
+            this.arrival = arrival;
+            this.data = data;
+        }
+    }
+
+    final Endpoint a = new Endpoint();
+    final Endpoint b = new Endpoint();
+
+    private final Random mRandom;
+    private double mLoss = 0;
+    private double mCorruption = 0;
+    private double mDuplication = 0;
+    private static final int LATENCY = 10;
+    private static final int PACKETS_PER_MS = 1;
+    private long mNow = 0;
+
+    long corruptedPackets = 0;
+
+    LossyLinkSimulator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    LossyLinkSimulator loss(double probability)        { mLoss = probability; return this; }
+    LossyLinkSimulator corruption(double probability)  { mCorruption = probability; return this; }
+    LossyLinkSimulator duplication(double probability) { mDuplication = probability; return this; }
+
+    /* both sides start a session, as they do on connection */
+    void connect(int packetSize) {
+        a.transport.setMaxPacketSize(packetSize);
+        b.transport.setMaxPacketSize(packetSize);
+        a.transport.resetSession();
+        b.transport.resetSession();
+    }
+
+    /* runs until both sides got all their data acknowledged or <limit> ms passed;
+     * returns simulated time it took */
+    long run(long limit) {
+        long start = mNow;
+        while (!(a.isSent() && b.isSent()) && mNow - start < limit) step();
+        return mNow - start;
+    }
+
+    /* runs for <duration> ms whatever happens */
+    void idle(long duration) {
+        long end = mNow + duration;
+        while (mNow < end) step();
+    }
+
+    private void step() {
+        deliver(a, b);
+        deliver(b, a);
+        fireTimer(a);
+        fireTimer(b);
+        transmit(a);
+        transmit(b);
+        mNow++;
+    }
+
+    private void deliver(Endpoint from, Endpoint to) {
+        while (!from.outgoing.isEmpty() && from.outgoing.peekFirst().arrival <= mNow) {
+            byte[] data = from.outgoing.pollFirst().data;
+            to.transport.onPacket(data, 0, data.length, mNow);
+        }
+    }
+
+    private void fireTimer(Endpoint endpoint) {
+        if (endpoint.timerAt < 0 || endpoint.timerAt > mNow) return;
+        endpoint.timerAt = -1;
+        endpoint.transport.onTimer(mNow);
+    }
+
+    private void transmit(Endpoint endpoint) {
+        endpoint.offer();
+        for (int i = 0; i < PACKETS_PER_MS; i++) {
+            byte[] packet = endpoint.transport.pollPacket(mNow);
+            if (packet == null) return;
+            if (endpoint.mute) continue;
+            endpoint.packetsSent++;
+            if (mRandom.nextDouble() < mLoss) continue;
+
+            // the transport reuses its packet arrays, the link keeps a copy
+            byte[] copy = packet.clone();
+            if (mRandom.nextDouble() < mCorruption) {
+                copy[mRandom.nextInt(copy.length)] ^= 1 << mRandom.nextInt(8);
+                corruptedPackets++;
+            }
+            endpoint.outgoing.addLast(new Packet(mNow + LATENCY, copy));
+            if (mRandom.nextDouble() < mDuplication) endpoint.outgoing.addLast(new Packet(mNow + LATENCY, copy));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.dragongears.bleuart;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OpenHashMapTest {
+
+    /* random puts and removes over a small key range, so probe sequences collide and wrap */
+    @Test
+    public void behavesLikeHashMap() {
+        Random random = new Random(1);
+        LongObjectMap<Integer> map = new LongObjectMap<>(4);
+        HashMap<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            long key = random.nextInt(200);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+            else {
+                map.put(key, i);
+                expected.put(key, i);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (long key = 0; key < 200; key++) assertEquals(expected.get(key), map.get(key));
+    }
+
+    @Test
+    public void intKeys() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        for (int key = 0x2A00; key < 0x2B00; key++) map.put(key, Integer.toHexString(key));
+        assertEquals(256, map.size());
+        assertEquals("2a37", map.get(0x2A37));
+        assertEquals("none", map.get(0x2C00, "none"));
+        assertEquals("2a00", map.remove(0x2A00));
+        assertNull(map.get(0x2A00));
+    }
+
+    /* UUIDs differing only in one half are different keys */
+    @Test
+    public void uuidKeys() {
+        UuidObjectMap<String> map = new UuidObjectMap<>();
+        UUID a = new UUID(1, 2);
+        UUID b = new UUID(1, 3);
+        UUID c = new UUID(4, 2);
+        map.put(a, "a");
+        map.put(b, "b");
+        map.put(c, "c");
+        assertEquals("a", map.get(a));
+        assertEquals("b", map.get(1, 3));
+        assertEquals("c", map.remove(c));
+        assertNull(map.get(c));
+        assertEquals(2, map.size());
+    }
+}
@@ -0,0 +1,161 @@
+package com.dragongears.bleuart;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReliableTransportTest {
+
+    /* 20 byte packets, as with the default ATT MTU */
+    private static final int PACKET_SIZE = UartWriteQueue.DEFAULT_CHUNK_SIZE;
+    private static final int TRANSFER_SIZE = 20 * 1024;
+
+    private static byte[] randomData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    /* sends TRANSFER_SIZE bytes from a to b, checks they arrived intact and returns how long it took */
+    private static long transfer(LossyLinkSimulator link) {
+        link.connect(PACKET_SIZE);
+        // session first - its handshake takes as long as lost resets make it, whatever the throughput
+        link.a.send(new byte[1]);
+        link.run(120000);
+        link.b.received.reset();
+
+        byte[] data = randomData(TRANSFER_SIZE);
+        link.a.send(data);
+        long elapsed = link.run(120000);
+
+        assertEquals("failures", 0, link.a.failures);
+        assertEquals("bytes acknowledged", data.length, link.a.bytesAcked);
+        assertArrayEquals(data, link.b.received.toByteArray());
+        return elapsed;
+    }
+
+    private static long losslessTime() {
+        return transfer(new LossyLinkSimulator(1));
+    }
+
+    @Test
+    public void deliversOverLosslessLink() {
+        LossyLinkSimulator link = new LossyLinkSimulator(1);
+        transfer(link);
+        assertEquals(0, link.a.transport.getRetransmissions());
+    }
+
+    @Test
+    public void recoversLostPackets() {
+        LossyLinkSimulator link = new LossyLinkSimulator(2).loss(0.15);
+        long elapsed = transfer(link);
+        assertTrue(link.a.transport.getRetransmissions() > 0);
+        assertTrue("took " + elapsed + " ms", elapsed < 3 * losslessTime());
+    }
+
+    @Test
+    public void dropsCorruptedPackets() {
+        LossyLinkSimulator link = new LossyLinkSimulator(3).corruption(0.05);
+        transfer(link);
+        assertTrue(link.corruptedPackets > 0);
+        assertEquals(link.corruptedPackets, link.a.transport.getCorruptedPackets() + link.b.transport.getCorruptedPackets());
+    }
+
+    @Test
+    public void ignoresDuplicatedPackets() {
+        transfer(new LossyLinkSimulator(4).duplication(0.2));
+    }
+
+    /* retransmissions get lost too - the sender must neither stall nor let the timeout grow without limit */
+    @Test
+    public void keepsGoodputOverLossyLink() {
+        for (long seed = 10; seed < 20; seed++) {
+            LossyLinkSimulator link = new LossyLinkSimulator(seed).loss(0.15).corruption(0.05).duplication(0.05);
+            long elapsed = transfer(link);
+            assertTrue("seed " + seed + " took " + elapsed + " ms", elapsed < 3 * losslessTime());
+        }
+    }
+
+    @Test
+    public void deliversInBothDirections() {
+        LossyLinkSimulator link = new LossyLinkSimulator(5).loss(0.1).corruption(0.02);
+        byte[] up = randomData(TRANSFER_SIZE);
+        byte[] down = randomData(TRANSFER_SIZE / 2);
+        link.connect(PACKET_SIZE);
+        link.a.send(up);
+        link.b.send(down);
+        link.run(120000);
+
+        assertArrayEquals(up, link.b.received.toByteArray());
+        assertArrayEquals(down, link.a.received.toByteArray());
+    }
+
+    /* peer not speaking the protocol never confirms the reset - the sender has to give up */
+    @Test
+    public void givesUpOnSilentPeer() {
+        LossyLinkSimulator link = new LossyLinkSimulator(6);
+        link.b.mute = true;
+        link.connect(PACKET_SIZE);
+        link.a.send(randomData(100));
+        link.run(120000);
+        assertEquals(1, link.a.failures);
+
+        // and stays quiet until there are new data
+        long sent = link.a.packetsSent;
+        link.idle(60000);
+        assertEquals(sent, link.a.packetsSent);
+        assertEquals(1, link.a.failures);
+    }
+
+    /* what BleWrapper does when the user disconnects with data still queued:
+     * nothing of them may reach the peripheral connected next */
+    @Test
+    public void sendsNothingClearedBeforeReconnect() {
+        LossyLinkSimulator link = new LossyLinkSimulator(8);
+        link.connect(PACKET_SIZE);
+        link.a.send(new byte[1]);
+        link.run(120000);
+        link.b.received.reset();
+
+        // peer stops acknowledging, segments stay unacknowledged in the window
+        link.b.mute = true;
+        link.a.send(randomData(1000));
+        link.idle(50);
+        assertFalse(link.a.isSent());
+
+        link.a.transport.clear();
+        link.a.send(new byte[0]);
+        // the link drains, whatever got through before the disconnect doesn't count
+        link.idle(50);
+        link.b.received.reset();
+        link.b.mute = false;
+        link.connect(PACKET_SIZE);
+        link.idle(5000);
+
+        assertEquals(0, link.b.received.size());
+        assertEquals(0, link.a.bytesAcked);
+        assertEquals(0, link.a.failures);
+    }
+
+    @Test
+    public void restartsSessionOnReconnect() {
+        LossyLinkSimulator link = new LossyLinkSimulator(7).loss(0.1);
+        byte[] first = randomData(1000);
+        link.connect(PACKET_SIZE);
+        link.a.send(first);
+        link.run(120000);
+
+        // new connection, both sides start over - sequence numbers don't continue
+        byte[] second = randomData(3000);
+        link.b.received.reset();
+        link.connect(PACKET_SIZE);
+        link.a.send(second);
+        link.run(120000);
+        assertArrayEquals(second, link.b.received.toByteArray());
+    }
+}
@@ -0,0 +1,82 @@
+package com.dragongears.bleuart;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/* what BleWrapper does for every scan result: parse the record and run the
+ * software filters over it, cycling through a set of recorded advertisements */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AdvertisementParserBenchmark {
+
+    private static final UUID UART_SERVICE = UUID.fromString("6E400001-B5A3-F393-E0A9-E50E24DCCA9E");
+    private static final UUID EDDYSTONE_SERVICE = UUID.fromString("0000feaa-0000-1000-8000-00805f9b34fb");
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) result[i] = (byte) values[i];
+        return result;
+    }
+
+    /* recorded advertisements, as ScanRecord.getBytes() returns them: UART peripheral,
+     * iBeacon, Eddystone URL beacon and heart rate sensor */
+    private static final byte[][] RECORDED = {
+        bytes(0x02, 0x01, 0x06,
+              0x11, 0x07, 0x9E, 0xCA, 0xDC, 0x24, 0x0E, 0xE5, 0xA9, 0xE0, 0x93, 0xF3, 0xA3, 0xB5, 0x01, 0x00, 0x40, 0x6E,
+              0x05, 0x09, 'U', 'A', 'R', 'T',
+              0x00, 0x00, 0x00, 0x00),
+        bytes(0x02, 0x01, 0x06,
+              0x1A, 0xFF, 0x4C, 0x00, 0x02, 0x15,
+              0xE2, 0xC5, 0x6D, 0xB5, 0xDF, 0xFB, 0x48, 0xD2, 0xB0, 0x60, 0xD0, 0xF5, 0xA7, 0x10, 0x96, 0xE0,
+              0x00, 0x01, 0x00, 0x02, 0xC5),
+        bytes(0x02, 0x01, 0x06,
+              0x03, 0x03, 0xAA, 0xFE,
+              0x0D, 0x16, 0xAA, 0xFE, 0x10, 0xEE, 0x03, 'g', 'o', 'o', 'g', 'l', 'e', 0x00,
+              0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00),
+        bytes(0x02, 0x01, 0x06,
+              0x05, 0x02, 0x0D, 0x18, 0x0F, 0x18,
+              0x02, 0x0A, 0xF4,
+              0x08, 0x08, 'P', 'o', 'l', 'a', 'r', ' ', 'H',
+              0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00),
+    };
+
+    private final AdvertisementParser mParser = new AdvertisementParser();
+    private int mNext = 0;
+
+    private byte[] nextRecord() {
+        mNext = (mNext + 1) & 3;
+        return RECORDED[mNext];
+    }
+
+    @Benchmark
+    public boolean parse() {
+        return mParser.parse(nextRecord());
+    }
+
+    @Benchmark
+    public int parseAndFilter() {
+        mParser.parse(nextRecord());
+        int matches = 0;
+        if (mParser.getFlags() != AdvertisementParser.NO_FLAGS) matches++;
+        if (mParser.nameStartsWith("UA")) matches++;
+        if (mParser.hasServiceUuid(UART_SERVICE)) matches++;
+        if (mParser.getManufacturerId() == 0x004C) matches++;
+        if (mParser.findServiceData(EDDYSTONE_SERVICE) >= 0) matches++;
+        return matches;
+    }
+
+    /* the allocating path, for comparison */
+    @Benchmark
+    public String parseAndDecodeName() {
+        mParser.parse(nextRecord());
+        return mParser.getName();
+    }
+}
@@ -0,0 +1,50 @@
+package com.dragongears.bleuart;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/* decoder lookup and decoding done for every notification */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CharacteristicDecodersBenchmark {
+
+    private static final UUID UART_RX = UUID.fromString("6E400003-B5A3-F393-E0A9-E50E24DCCA9E");
+    private static final UUID SENSOR = UUID.fromString("F000AA01-0451-4000-B000-000000000000");
+
+    private final CharacteristicDecoders mDecoders = new CharacteristicDecoders();
+    private final CharacteristicDecoder.Result mResult = new CharacteristicDecoder.Result();
+    private final byte[] mHeartRate = { 0x00, 72 };
+
+    public CharacteristicDecodersBenchmark() {
+        mDecoders.register(SENSOR, new CharacteristicDecoder.Generic());
+    }
+
+    @Benchmark
+    public CharacteristicDecoder findStandard() {
+        return mDecoders.find(BleDefinedUUIDs.Characteristic.HEART_RATE_MEASUREMENT);
+    }
+
+    @Benchmark
+    public CharacteristicDecoder findVendor() {
+        return mDecoders.find(SENSOR);
+    }
+
+    @Benchmark
+    public CharacteristicDecoder findFallback() {
+        return mDecoders.find(UART_RX);
+    }
+
+    @Benchmark
+    public int findAndDecodeHeartRate() {
+        mDecoders.find(BleDefinedUUIDs.Characteristic.HEART_RATE_MEASUREMENT).decode(mHeartRate, mResult);
+        return mResult.intValue;
+    }
+}